@@ -1,14 +1,37 @@
 package net.w_graj.bundleimport;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.utils.manifest.Clause;
 import org.apache.felix.utils.manifest.Parser;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 public class BundleImport {
     private static final String DB_URL = "jdbc:postgresql:cse3000";
@@ -17,183 +40,651 @@ public class BundleImport {
 
     private static final int BATCH_SIZE = 1024;
     private static final int FETCH_SIZE = 1024;
+    private static final int QUEUE_SIZE = 4096;
+    private static final int N_PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int PARSE_CACHE_SIZE = 65536;
+    private static final int PAGE_SIZE = 100000;
+    private static final String PROGRESS_NAME = "bundle_versions";
+    private static final String IMPORTS_PROGRESS_NAME = "imported_packages";
 
-    private static final String SELECT_BUNDLE_VERSIONS_1_SQL = "SELECT"
+    private static final String SELECT_BUNDLE_VERSIONS_SQL = "SELECT"
             + "\n    id,"
             + "\n    require_bundle,"
-            + "\n    export_package"
-            + "\nFROM"
-            + "\n    bundle_versions";
-
-    private static final String SELECT_BUNDLE_VERSIONS_2_SQL = "SELECT"
-            + "\n    id,"
+            + "\n    export_package,"
             + "\n    import_package"
             + "\nFROM"
-            + "\n    bundle_versions";
-
-    private static final String INSERT_EXPORTED_PACKAGE_SQL = "WITH package AS ("
-            + "\nINSERT INTO packages(name)"
-            + "\n        VALUES (?)"
-            + "\n    ON CONFLICT (name)"
-            + "\n        DO NOTHING"
-            + "\n    RETURNING"
-            + "\n        id)"
-            + "\n    INSERT INTO exported_packages(bundle_version_id, package_id, version)"
-            + "\n        VALUES (?,("
-            + "\n                SELECT"
-            + "\n                    id"
-            + "\n                FROM"
-            + "\n                    package"
-            + "\n                UNION ALL"
-            + "\n                SELECT"
-            + "\n                    id"
-            + "\n                FROM"
-            + "\n                    packages"
-            + "\n                WHERE"
-            + "\n                    name = ?), ?)"
-            + "\n    ON CONFLICT (bundle_version_id,"
-            + "\n        package_id,"
-            + "\n        version)"
-            + "\n        DO NOTHING";
-
-    private static final String INSERT_REQUIRED_BUNDLE_SQL = "INSERT INTO required_bundles(from_bundle_version_id, to_bundle_id, version)"
-            + "\nSELECT"
-            + "\n    ?,"
-            + "\n    id,"
-            + "\n    ?"
+            + "\n    bundle_versions"
+            + "\nWHERE"
+            + "\n    id > ?"
+            + "\nORDER BY"
+            + "\n    id"
+            + "\nLIMIT ?";
+
+    private static final String SELECT_PROGRESS_SQL = "SELECT"
+            + "\n    watermark"
             + "\nFROM"
-            + "\n    bundles"
+            + "\n    progress"
             + "\nWHERE"
-            + "\n    bundle_symbolic_name = ?"
-            + "\nON CONFLICT (from_bundle_version_id,"
-            + "\n    to_bundle_id)"
+            + "\n    name = ?";
+
+    private static final String UPSERT_PROGRESS_SQL = "INSERT INTO progress(name, watermark)"
+            + "\n    VALUES (?, ?)"
+            + "\nON CONFLICT (name)"
             + "\n    DO UPDATE SET"
-            + "\n        version = coalesce(required_bundles.version, EXCLUDED.version)";
+            + "\n        watermark = EXCLUDED.watermark";
+
+    private static final String DELETE_EXPORTED_PACKAGES_SQL = "DELETE FROM exported_packages"
+            + "\nWHERE bundle_version_id > ?";
+
+    private static final String DELETE_IMPORTED_PACKAGES_SQL = "DELETE FROM imported_packages";
 
-    private static final String INSERT_IMPORTED_PACKAGE_SQL = "INSERT INTO imported_packages(from_bundle_version_id, to_package_id, version)"
-            + "\nSELECT"
-            + "\n    ?,"
+    private static final String DELETE_REQUIRED_BUNDLES_SQL = "DELETE FROM required_bundles"
+            + "\nWHERE from_bundle_version_id > ?";
+
+    private static final String SELECT_PACKAGES_SQL = "SELECT"
             + "\n    id,"
-            + "\n    ?"
+            + "\n    name"
+            + "\nFROM"
+            + "\n    packages";
+
+    private static final String SELECT_BUNDLES_SQL = "SELECT"
+            + "\n    id,"
+            + "\n    bundle_symbolic_name"
+            + "\nFROM"
+            + "\n    bundles";
+
+    private static final String SET_PACKAGES_ID_SQL = "SELECT"
+            + "\n    setval(pg_get_serial_sequence('packages', 'id'), max(id))"
             + "\nFROM"
             + "\n    packages"
-            + "\nWHERE"
-            + "\n    name = ?"
-            + "\nON CONFLICT (from_bundle_version_id,"
-            + "\n    to_package_id)"
-            + "\n    DO UPDATE SET"
-            + "\n        version = coalesce(imported_packages.version, EXCLUDED.version)";
+            + "\nHAVING"
+            + "\n    max(id) IS NOT NULL";
+
+    private static final String COPY_PACKAGES_SQL = "COPY packages(id, name) FROM STDIN";
+    private static final String COPY_EXPORTED_PACKAGES_SQL = "COPY exported_packages(bundle_version_id, package_id, version) FROM STDIN";
+    private static final String COPY_REQUIRED_BUNDLES_SQL = "COPY required_bundles(from_bundle_version_id, to_bundle_id, version) FROM STDIN";
+    private static final String COPY_IMPORTED_PACKAGES_SQL = "COPY imported_packages(from_bundle_version_id, to_package_id, version) FROM STDIN";
+
+    private static class BundleVersion {
+        public static final BundleVersion END = new BundleVersion(0, null, null, null, null);
+
+        public final int id;
+        public final String requireBundle;
+        public final String exportPackage;
+        public final String importPackage;
+        public final Checkpoint checkpoint;
+
+        public BundleVersion(final int id, final String requireBundle, final String exportPackage,
+                final String importPackage, final Checkpoint checkpoint) {
+            this.id = id;
+            this.requireBundle = requireBundle;
+            this.exportPackage = exportPackage;
+            this.importPackage = importPackage;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    private static class ParsedHeader {
+        public static final ParsedHeader END = new ParsedHeader(0, HeaderClauses.EMPTY);
+
+        public final int id;
+        public final String[] names;
+        public final String[] versions;
+
+        public ParsedHeader(final int id, final HeaderClauses clauses) {
+            this.id = id;
+            this.names = clauses.names;
+            this.versions = clauses.versions;
+        }
+    }
+
+    private static class Checkpoint extends ParsedHeader {
+        public final int watermark;
+        public final CyclicBarrier parsed;
+        private final AtomicInteger writers = new AtomicInteger(2);
+
+        public Checkpoint(final int watermark, final BlockingQueue<ParsedHeader> exportedPackages,
+                final BlockingQueue<ParsedHeader> requiredBundles) {
+            super(0, HeaderClauses.EMPTY);
+            this.watermark = watermark;
+            this.parsed = new CyclicBarrier(N_PARSER_THREADS, () -> {
+                try {
+                    exportedPackages.put(this);
+                    requiredBundles.put(this);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        public void committed(final Connection conn) throws SQLException {
+            if (writers.decrementAndGet() > 0)
+                return;
+
+            saveWatermark(conn, PROGRESS_NAME, watermark);
+            conn.commit();
+        }
+    }
+
+    private static class HeaderClauses {
+        public static final HeaderClauses EMPTY = new HeaderClauses(new String[0], new String[0]);
+
+        public final String[] names;
+        public final String[] versions;
+
+        public HeaderClauses(final String[] names, final String[] versions) {
+            this.names = names;
+            this.versions = versions;
+        }
+
+        public static HeaderClauses parse(final String header, final String versionAttribute) {
+            try {
+                final Clause[] clauses = Parser.parseHeader(header);
+                final String[] names = new String[clauses.length];
+                final String[] versions = new String[clauses.length];
+                for (int i = 0; i < clauses.length; i++) {
+                    names[i] = clauses[i].getName();
+                    versions[i] = clauses[i].getAttribute(versionAttribute);
+                }
+                return new HeaderClauses(names, versions);
+            } catch (Exception e) {
+                System.err.println(e);
+                return EMPTY;
+            }
+        }
+    }
+
+    private static class HeaderCache {
+        private final String name;
+        private final String versionAttribute;
+        private final Map<String, HeaderClauses> cache = new LinkedHashMap<String, HeaderClauses>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, HeaderClauses> eldest) {
+                return size() > PARSE_CACHE_SIZE;
+            }
+        };
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        public HeaderCache(final String name, final String versionAttribute) {
+            this.name = name;
+            this.versionAttribute = versionAttribute;
+        }
+
+        public ParsedHeader parse(final int id, final String header) {
+            if (header == null)
+                return new ParsedHeader(id, HeaderClauses.EMPTY);
+
+            HeaderClauses clauses;
+            synchronized (cache) {
+                clauses = cache.get(header);
+            }
+            if (clauses != null) {
+                hits.incrementAndGet();
+                return new ParsedHeader(id, clauses);
+            }
+
+            misses.incrementAndGet();
+            clauses = HeaderClauses.parse(header, versionAttribute);
+            synchronized (cache) {
+                cache.put(header, clauses);
+            }
+            return new ParsedHeader(id, clauses);
+        }
+
+        public void printStats() {
+            final long h = hits.get();
+            final long m = misses.get();
+            System.out.printf("%s cache: %d hits, %d misses (%.1f%%)\n", name, h, m,
+                    (h + m > 0) ? 100.0 * h / (h + m) : 0.0);
+        }
+    }
+
+    private static class CopyBuffer {
+        private final CopyManager copyManager;
+        private final String sql;
+        private final StringBuilder sb = new StringBuilder();
+        private boolean rowStart = true;
+
+        public CopyBuffer(final Connection conn, final String sql) throws SQLException {
+            this.copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+            this.sql = sql;
+        }
+
+        public void add(final int value) {
+            separator();
+            sb.append(value);
+        }
+
+        public void add(final String value) {
+            separator();
+            if (value == null) {
+                sb.append("\\N");
+                return;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                final char ch = value.charAt(i);
+                switch (ch) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    default:
+                        sb.append(ch);
+                }
+            }
+        }
+
+        public void endRow() {
+            sb.append('\n');
+            rowStart = true;
+        }
+
+        public void flush() throws SQLException, IOException {
+            if (sb.length() == 0)
+                return;
+            copyManager.copyIn(sql, new StringReader(sb.toString()));
+            sb.setLength(0);
+        }
+
+        private void separator() {
+            if (!rowStart)
+                sb.append('\t');
+            rowStart = false;
+        }
+    }
+
+    private static class StagedImports {
+        private final Map<String, Integer> names = new HashMap<>();
+        private final Map<String, Integer> versions = new HashMap<>();
+        private final List<String> versionList = new ArrayList<>();
+        private int[] fromIds = new int[1 << 16];
+        private int[] nameIds = new int[1 << 16];
+        private int[] versionIds = new int[1 << 16];
+        private int size = 0;
+
+        public void add(final int fromId, final String name, final String version) {
+            if (size == fromIds.length) {
+                fromIds = Arrays.copyOf(fromIds, size * 2);
+                nameIds = Arrays.copyOf(nameIds, size * 2);
+                versionIds = Arrays.copyOf(versionIds, size * 2);
+            }
+            fromIds[size] = fromId;
+            nameIds[size] = names.computeIfAbsent(name, k -> names.size());
+            versionIds[size] = (version != null) ? versions.computeIfAbsent(version, k -> {
+                versionList.add(k);
+                return versionList.size() - 1;
+            }) : -1;
+            size++;
+        }
+
+        public void write(final CopyBuffer copy, final Map<String, Integer> packageIds)
+                throws SQLException, IOException {
+            final int[] resolved = new int[names.size()];
+            for (final Map.Entry<String, Integer> entry : names.entrySet())
+                resolved[entry.getValue()] = packageIds.getOrDefault(entry.getKey(), -1);
+
+            for (int i = 0; i < size; i++) {
+                final int packageId = resolved[nameIds[i]];
+                if (packageId == -1)
+                    continue;
+
+                copy.add(fromIds[i]);
+                copy.add(packageId);
+                copy.add((versionIds[i] != -1) ? versionList.get(versionIds[i]) : null);
+                copy.endRow();
+
+                if ((i + 1) % (BATCH_SIZE * 16) == 0)
+                    copy.flush();
+            }
+
+            copy.flush();
+        }
+    }
 
     public static void main(final String[] args) throws Exception {
+        final BlockingQueue<BundleVersion> bundleVersions = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<ParsedHeader> exportedPackages = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<ParsedHeader> requiredBundles = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<ParsedHeader> importedPackages = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final CompletableFuture<Map<String, Integer>> packageIds = new CompletableFuture<>();
+        final HeaderCache exportCache = new HeaderCache("Export-Package", "version");
+        final HeaderCache requireCache = new HeaderCache("Require-Bundle", "bundle-version");
+        final HeaderCache importCache = new HeaderCache("Import-Package", "version");
+        final int watermark;
+        final boolean importsDone;
+
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            watermark = loadWatermark(conn, PROGRESS_NAME);
+            importsDone = loadWatermark(conn, IMPORTS_PROGRESS_NAME) > 0;
+            for (final String sql : new String[] { DELETE_EXPORTED_PACKAGES_SQL, DELETE_REQUIRED_BUNDLES_SQL }) {
+                try (final PreparedStatement delete = conn.prepareStatement(sql);) {
+                    delete.setInt(1, watermark);
+                    delete.executeUpdate();
+                }
+            }
+            conn.commit();
+        }
+        if (watermark > 0)
+            System.out.printf("Resuming after bundle version %d\n", watermark);
+
+        final ExecutorService parsers = Executors.newFixedThreadPool(N_PARSER_THREADS);
+        final ExecutorService writers = Executors.newFixedThreadPool(3);
+        final Thread reader = Thread.currentThread();
+        try {
+            final List<Future<?>> parserFutures = new ArrayList<>();
+            for (int i = 0; i < N_PARSER_THREADS; i++) {
+                parserFutures.add(submit(parsers, reader, () -> {
+                    parse(bundleVersions, exportCache, requireCache, importCache, exportedPackages, requiredBundles,
+                            importedPackages);
+                    return null;
+                }));
+            }
+
+            final List<Future<?>> writerFutures = new ArrayList<>();
+            writerFutures.add(submit(writers, reader, () -> {
+                packageIds.complete(writeExportedPackages(exportedPackages));
+                return null;
+            }));
+            writerFutures.add(submit(writers, reader, () -> {
+                writeRequiredBundles(requiredBundles);
+                return null;
+            }));
+            writerFutures.add(submit(writers, reader, () -> {
+                writeImportedPackages(importedPackages, packageIds, importsDone);
+                return null;
+            }));
+
+            read(bundleVersions, importsDone ? watermark : 0, watermark, exportedPackages, requiredBundles);
+            for (int i = 0; i < N_PARSER_THREADS; i++)
+                bundleVersions.put(BundleVersion.END);
+
+            for (final Future<?> future : parserFutures)
+                future.get();
+            exportedPackages.put(ParsedHeader.END);
+            requiredBundles.put(ParsedHeader.END);
+            importedPackages.put(ParsedHeader.END);
+
+            for (final Future<?> future : writerFutures)
+                future.get();
+
+            exportCache.printStats();
+            requireCache.printStats();
+            importCache.printStats();
+        } finally {
+            parsers.shutdownNow();
+            writers.shutdownNow();
+        }
+    }
+
+    private static Future<?> submit(final ExecutorService executor, final Thread reader, final Callable<Void> task) {
+        return executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                System.err.println(e);
+                reader.interrupt();
+                throw e;
+            }
+        });
+    }
+
+    private static void read(final BlockingQueue<BundleVersion> bundleVersions, final int start,
+            final int watermark, final BlockingQueue<ParsedHeader> exportedPackages,
+            final BlockingQueue<ParsedHeader> requiredBundles) throws SQLException, InterruptedException {
         try (
                 final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
-                final PreparedStatement getBundleVersions1 = conn.prepareStatement(
-                        SELECT_BUNDLE_VERSIONS_1_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                final PreparedStatement getBundleVersions2 = conn.prepareStatement(
-                        SELECT_BUNDLE_VERSIONS_2_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                final PreparedStatement insertExportedPackage = conn.prepareStatement(INSERT_EXPORTED_PACKAGE_SQL);
-                final PreparedStatement insertRequiredBundle = conn.prepareStatement(INSERT_REQUIRED_BUNDLE_SQL);
-                final PreparedStatement insertImportedPackage = conn.prepareStatement(INSERT_IMPORTED_PACKAGE_SQL);
-
-        ) {
+                final PreparedStatement getBundleVersions = conn.prepareStatement(
+                        SELECT_BUNDLE_VERSIONS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
             conn.setAutoCommit(false);
-            getBundleVersions1.setFetchSize(FETCH_SIZE);
-            getBundleVersions2.setFetchSize(FETCH_SIZE);
-            final ResultSet rs1 = getBundleVersions1.executeQuery();
-            final ResultSet rs2 = getBundleVersions2.executeQuery();
-            final List<PreparedStatement> statements1 = List.of(insertExportedPackage, insertRequiredBundle);
-            final List<PreparedStatement> statements2 = List.of(insertImportedPackage);
+            getBundleVersions.setFetchSize(FETCH_SIZE);
             int count = 0;
+            int lastId = start;
 
-            while (rs1.next()) {
-                final int id = rs1.getInt(1);
-                final String requireBundle = rs1.getString(2);
-                final String exportPackage = rs1.getString(3);
-                count++;
+            while (true) {
+                getBundleVersions.setInt(1, lastId);
+                getBundleVersions.setInt(2, PAGE_SIZE);
+                final ResultSet rs = getBundleVersions.executeQuery();
+                int pageCount = 0;
 
-                try {
-                    for (final Clause clause : Parser.parseHeader(exportPackage))
-                        processExportedPackage(insertExportedPackage, id, clause);
-                } catch (Exception e) {
-                    System.err.println(e);
+                while (rs.next()) {
+                    lastId = rs.getInt(1);
+                    if (lastId <= watermark)
+                        bundleVersions.put(new BundleVersion(lastId, null, null, rs.getString(4), null));
+                    else
+                        bundleVersions.put(new BundleVersion(lastId, rs.getString(2), rs.getString(3),
+                                rs.getString(4), null));
+                    count++;
+                    pageCount++;
+
+                    if (count % 10000 == 0)
+                        System.out.printf("Read: %d\n", count);
                 }
+                conn.commit();
 
-                try {
-                    for (final Clause clause : Parser.parseHeader(requireBundle))
-                        processRequiredBundle(insertRequiredBundle, id, clause);
-                } catch (Exception e) {
-                    System.err.println(e);
+                if (pageCount == 0)
+                    break;
+
+                if (lastId > watermark) {
+                    final Checkpoint checkpoint = new Checkpoint(lastId, exportedPackages, requiredBundles);
+                    for (int i = 0; i < N_PARSER_THREADS; i++)
+                        bundleVersions.put(new BundleVersion(0, null, null, null, checkpoint));
                 }
+            }
+        }
+    }
+
+    private static void parse(final BlockingQueue<BundleVersion> bundleVersions, final HeaderCache exportCache,
+            final HeaderCache requireCache, final HeaderCache importCache,
+            final BlockingQueue<ParsedHeader> exportedPackages, final BlockingQueue<ParsedHeader> requiredBundles,
+            final BlockingQueue<ParsedHeader> importedPackages) throws InterruptedException, BrokenBarrierException {
+        while (true) {
+            final BundleVersion bundleVersion = bundleVersions.take();
+            if (bundleVersion == BundleVersion.END)
+                return;
+            if (bundleVersion.checkpoint != null) {
+                bundleVersion.checkpoint.parsed.await();
+                continue;
+            }
 
-                if (count % BATCH_SIZE == 0)
-                    flushBatches(statements1);
+            if (bundleVersion.exportPackage != null)
+                exportedPackages.put(exportCache.parse(bundleVersion.id, bundleVersion.exportPackage));
+            if (bundleVersion.requireBundle != null)
+                requiredBundles.put(requireCache.parse(bundleVersion.id, bundleVersion.requireBundle));
+            if (bundleVersion.importPackage != null)
+                importedPackages.put(importCache.parse(bundleVersion.id, bundleVersion.importPackage));
+        }
+    }
+
+    private static Map<String, Integer> writeExportedPackages(final BlockingQueue<ParsedHeader> exportedPackages)
+            throws SQLException, InterruptedException, IOException {
+        try (
+                final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+                final Statement statement = conn.createStatement();) {
+            conn.setAutoCommit(false);
+            final Map<String, Integer> packageIds = loadIds(conn, SELECT_PACKAGES_SQL);
+            int nextPackageId = 1;
+            for (final int id : packageIds.values())
+                nextPackageId = Math.max(nextPackageId, id + 1);
+
+            final CopyBuffer copyPackages = new CopyBuffer(conn, COPY_PACKAGES_SQL);
+            final CopyBuffer copyExportedPackages = new CopyBuffer(conn, COPY_EXPORTED_PACKAGES_SQL);
+            final Set<String> exported = new HashSet<>();
+            int count = 0;
+
+            while (true) {
+                final ParsedHeader header = exportedPackages.take();
+                if (header == ParsedHeader.END)
+                    break;
+                if (header instanceof Checkpoint) {
+                    copyPackages.flush();
+                    copyExportedPackages.flush();
+                    statement.execute(SET_PACKAGES_ID_SQL);
+                    conn.commit();
+                    ((Checkpoint) header).committed(conn);
+                    continue;
+                }
+
+                exported.clear();
+                for (int i = 0; i < header.names.length; i++) {
+                    Integer packageId = packageIds.get(header.names[i]);
+                    if (packageId == null) {
+                        packageId = nextPackageId++;
+                        packageIds.put(header.names[i], packageId);
+                        copyPackages.add(packageId);
+                        copyPackages.add(header.names[i]);
+                        copyPackages.endRow();
+                    }
+
+                    final String version = (header.versions[i] != null) ? header.versions[i] : "0.0.0";
+                    if (!exported.add(packageId + " " + version))
+                        continue;
+
+                    copyExportedPackages.add(header.id);
+                    copyExportedPackages.add(packageId);
+                    copyExportedPackages.add(version);
+                    copyExportedPackages.endRow();
+                }
+
+                if (++count % BATCH_SIZE == 0) {
+                    copyPackages.flush();
+                    copyExportedPackages.flush();
+                }
 
                 if (count % 10000 == 0)
-                    System.out.printf("Batch 1: %d\n", count);
+                    System.out.printf("Exported packages: %d\n", count);
             }
 
-            flushBatches(statements1);
-            count = 0;
+            copyPackages.flush();
+            copyExportedPackages.flush();
+            statement.execute(SET_PACKAGES_ID_SQL);
 
-            while (rs2.next()) {
-                final int id = rs2.getInt(1);
-                final String importPackage = rs2.getString(2);
-                count++;
+            conn.commit();
+            return packageIds;
+        }
+    }
 
-                try {
-                    for (final Clause clause : Parser.parseHeader(importPackage))
-                        processImportedPacakge(insertImportedPackage, id, clause);
-                } catch (Exception e) {
-                    System.err.println(e);
+    private static void writeRequiredBundles(final BlockingQueue<ParsedHeader> requiredBundles)
+            throws SQLException, InterruptedException, IOException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final Map<String, Integer> bundleIds = loadIds(conn, SELECT_BUNDLES_SQL);
+            final CopyBuffer copyRequiredBundles = new CopyBuffer(conn, COPY_REQUIRED_BUNDLES_SQL);
+            final Map<Integer, String> required = new LinkedHashMap<>();
+            int count = 0;
+
+            while (true) {
+                final ParsedHeader header = requiredBundles.take();
+                if (header == ParsedHeader.END)
+                    break;
+                if (header instanceof Checkpoint) {
+                    copyRequiredBundles.flush();
+                    conn.commit();
+                    ((Checkpoint) header).committed(conn);
+                    continue;
                 }
 
-                if (count % BATCH_SIZE == 0)
-                    flushBatches(statements2);
+                required.clear();
+                for (int i = 0; i < header.names.length; i++) {
+                    final Integer bundleId = bundleIds.get(header.names[i]);
+                    if (bundleId != null && required.get(bundleId) == null)
+                        required.put(bundleId, header.versions[i]);
+                }
 
-                if (count % 10000 == 0)
-                    System.out.printf("Batch 2: %d\n", count);
+                for (final Map.Entry<Integer, String> entry : required.entrySet()) {
+                    copyRequiredBundles.add(header.id);
+                    copyRequiredBundles.add(entry.getKey());
+                    copyRequiredBundles.add(entry.getValue());
+                    copyRequiredBundles.endRow();
+                }
+
+                if (++count % BATCH_SIZE == 0)
+                    copyRequiredBundles.flush();
             }
 
-            flushBatches(statements2);
+            copyRequiredBundles.flush();
 
             conn.commit();
         }
     }
 
-    private static void processExportedPackage(final PreparedStatement insertExportedPackage, final int id,
-            final Clause clause)
-            throws SQLException {
-        final String version = clause.getAttribute("version");
-        insertExportedPackage.setString(1, clause.getName());
-        insertExportedPackage.setInt(2, id);
-        insertExportedPackage.setString(3, clause.getName());
-        insertExportedPackage.setString(4, (version != null) ? version : "0.0.0");
-        insertExportedPackage.addBatch();
+    private static void writeImportedPackages(final BlockingQueue<ParsedHeader> importedPackages,
+            final Future<Map<String, Integer>> packageIds, final boolean importsDone) throws Exception {
+        final StagedImports staged = new StagedImports();
+        final Map<String, String> imported = new LinkedHashMap<>();
+        int lastId = 0;
+
+        while (true) {
+            final ParsedHeader header = importedPackages.take();
+            if (header == ParsedHeader.END)
+                break;
+            if (importsDone)
+                continue;
+            lastId = Math.max(lastId, header.id);
+
+            imported.clear();
+            for (int i = 0; i < header.names.length; i++)
+                if (imported.get(header.names[i]) == null)
+                    imported.put(header.names[i], header.versions[i]);
+
+            for (final Map.Entry<String, String> entry : imported.entrySet())
+                staged.add(header.id, entry.getKey(), entry.getValue());
+        }
+
+        final Map<String, Integer> ids = packageIds.get();
+        if (importsDone)
+            return;
+        System.out.println("Resolving imported packages");
+
+        try (
+                final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+                final Statement statement = conn.createStatement();) {
+            conn.setAutoCommit(false);
+            statement.execute(DELETE_IMPORTED_PACKAGES_SQL);
+            staged.write(new CopyBuffer(conn, COPY_IMPORTED_PACKAGES_SQL), ids);
+            saveWatermark(conn, IMPORTS_PROGRESS_NAME, Math.max(lastId, 1));
+
+            conn.commit();
+        }
     }
 
-    private static void processRequiredBundle(final PreparedStatement insertRequiredBundle, final int id,
-            final Clause clause)
-            throws SQLException {
-        insertRequiredBundle.setInt(1, id);
-        insertRequiredBundle.setString(2, clause.getAttribute("bundle-version"));
-        insertRequiredBundle.setString(3, clause.getName());
-        insertRequiredBundle.addBatch();
+    private static int loadWatermark(final Connection conn, final String name) throws SQLException {
+        try (final PreparedStatement getProgress = conn.prepareStatement(SELECT_PROGRESS_SQL);) {
+            getProgress.setString(1, name);
+            final ResultSet rs = getProgress.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
     }
 
-    private static void processImportedPacakge(final PreparedStatement insertImportedPackage, final int id,
-            final Clause clause)
+    private static void saveWatermark(final Connection conn, final String name, final int watermark)
             throws SQLException {
-        insertImportedPackage.setInt(1, id);
-        insertImportedPackage.setString(2, clause.getAttribute("version"));
-        insertImportedPackage.setString(3, clause.getName());
-        insertImportedPackage.addBatch();
+        try (final PreparedStatement upsertProgress = conn.prepareStatement(UPSERT_PROGRESS_SQL);) {
+            upsertProgress.setString(1, name);
+            upsertProgress.setInt(2, watermark);
+            upsertProgress.executeUpdate();
+        }
     }
 
-    private static void flushBatches(final List<PreparedStatement> statements)
-            throws SQLException {
-        for (final PreparedStatement statement : statements) {
-            statement.executeBatch();
-            statement.clearBatch();
+    private static Map<String, Integer> loadIds(final Connection conn, final String sql) throws SQLException {
+        final Map<String, Integer> ids = new HashMap<>();
+        try (
+                final PreparedStatement getIds = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);) {
+            getIds.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = getIds.executeQuery();
+            while (rs.next())
+                ids.put(rs.getString(2), rs.getInt(1));
         }
+        return ids;
     }
 }
@@ -10,7 +10,7 @@ import java.util.Map;
 import java.util.Random;
 
 import nl.cwts.networkanalysis.Clustering;
-import nl.cwts.networkanalysis.ClusteringAlgorithm;
+import nl.cwts.networkanalysis.IterativeCPMClusteringAlgorithm;
 import nl.cwts.networkanalysis.LouvainAlgorithm;
 import nl.cwts.networkanalysis.Network;
 import nl.cwts.util.LargeDoubleArray;
@@ -24,6 +24,11 @@ public class Cluster {
     private static final int FETCH_SIZE = 4096;
     private static final int BATCH_SIZE = 4096;
 
+    private static final double RESOLUTION = 0.003;
+    private static final int N_ITERATIONS = 70;
+    private static final boolean CONVERGENCE_STOPPING = false;
+    private static final double QUALITY_EPSILON = 1e-6;
+
     private static final String SELECT_ROOT_GROUP_IDS_SQL = "SELECT DISTINCT"
             + "\n    root_group_id"
             + "\nFROM"
@@ -105,9 +110,15 @@ public class Cluster {
             int communityOffset = 0;
             int batch = 0;
             int groupIdCount = 0;
+            long iterations = 0;
+            long maxIterations = 0;
             while (rootGroupIdRs.next()) {
-                if (++groupIdCount % 512 == 0)
-                    System.out.println(groupIdCount);
+                if (++groupIdCount % 512 == 0) {
+                    if (CONVERGENCE_STOPPING)
+                        System.out.printf("%d (%d of %d iterations)\n", groupIdCount, iterations, maxIterations);
+                    else
+                        System.out.println(groupIdCount);
+                }
 
                 final String rootGroupId = rootGroupIdRs.getString(1);
                 selectEdges.setString(1, rootGroupId);
@@ -138,8 +149,16 @@ public class Cluster {
                     continue;
 
                 final Network network = new Network(artifactIdToNodeId.size(), false, edges, edgeWeights, false, false);
-                final ClusteringAlgorithm algo = new LouvainAlgorithm(0.003, 70, new Random(0));
-                final Clustering clustering = algo.findClustering(network);
+                final LouvainAlgorithm algo = new LouvainAlgorithm(RESOLUTION, N_ITERATIONS, new Random(0));
+                final Clustering clustering;
+                if (CONVERGENCE_STOPPING) {
+                    clustering = new Clustering(network.getNNodes());
+                    iterations += converge(algo, network, clustering);
+                    maxIterations += N_ITERATIONS;
+                    clustering.orderClustersByNNodes();
+                } else {
+                    clustering = algo.findClustering(network);
+                }
 
                 final int[] clusters = clustering.getClusters();
                 final int[] nNodesPer = clustering.getNNodesPerCluster();
@@ -161,7 +180,29 @@ public class Cluster {
             flushBatch(insertCommunity);
 
             conn.commit();
+
+            if (CONVERGENCE_STOPPING)
+                System.out.printf("%d of %d iterations (%.1f%% saved)\n", iterations, maxIterations,
+                        (maxIterations > 0) ? 100.0 * (maxIterations - iterations) / maxIterations : 0.0);
+        }
+    }
+
+    private static int converge(final IterativeCPMClusteringAlgorithm algo, final Network network,
+            final Clustering clustering) {
+        final int maxIterations = algo.getNIterations();
+        algo.setNIterations(1);
+        double quality = algo.calcQuality(network, clustering);
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            final boolean changed = algo.improveClustering(network, clustering);
+            iterations++;
+            final double improved = algo.calcQuality(network, clustering);
+            if (!changed || improved - quality < QUALITY_EPSILON * Math.max(1.0, Math.abs(improved)))
+                break;
+            quality = improved;
         }
+        algo.setNIterations(maxIterations);
+        return iterations;
     }
 
     private static void flushBatch(final PreparedStatement statement)
@@ -1,179 +1,1197 @@
 package net.w_graj.dependencies;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
-import org.apache.maven.model.Dependency;
-import org.apache.maven.model.DependencyManagement;
-import org.apache.maven.model.Model;
-import org.apache.maven.model.Parent;
-import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 public class Dependencies {
     private static final String DB_URL = "jdbc:postgresql:cse3000";
     private static final String DB_USER = "wojtek";
     private static final String DB_PASS = "";
 
-    private static final int BATCH_SIZE = 4096;
+    private static final int COPY_BATCH_SIZE = 65536;
     private static final int FETCH_SIZE = 4096;
+    private static final int QUEUE_SIZE = 4096;
+    private static final int N_PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final boolean STREAMING_EXTRACTOR = true;
+    private static final int POM_CACHE_SIZE = 65536;
+    private static final int PARENT_CACHE_SIZE = 16384;
+    private static final boolean AGGREGATE_DEPENDENCY_COUNTS = true;
+    private static final int DEPENDENCY_COUNTS_MEMORY_ENTRIES = 1 << 22;
+    private static final int PAGE_SIZE = 100000;
+    private static final String PROGRESS_NAME = "dependencies";
+    private static final String POM_SOURCE = null;
+    private static final Pattern POM_PACKAGING = Pattern.compile("<packaging>\\s*pom\\s*</packaging>");
 
     private static final String SELECT_SQL = "SELECT"
-            + "\n    version_id,"
-            + "\n    value"
+            + "\n    poms.version_id,"
+            + "\n    poms.value,"
+            + "\n    versions.version"
             + "\nFROM"
-            + "\n    poms";
+            + "\n    poms"
+            + "\n    JOIN versions ON versions.id = poms.version_id"
+            + "\nWHERE"
+            + "\n    poms.version_id > ?"
+            + "\nORDER BY"
+            + "\n    poms.version_id"
+            + "\nLIMIT ?";
 
-    private static final String INSERT_DEPENDENCY_SQL = "INSERT INTO dependencies(from_version_id, to_artifact_id, version, scope, managed)"
-            + "\nSELECT"
-            + "\n    ?,"
-            + "\n    id,"
-            + "\n    ?,"
-            + "\n    ?,"
-            + "\n    ?"
+    private static final String SELECT_PROGRESS_SQL = "SELECT"
+            + "\n    watermark"
             + "\nFROM"
-            + "\n    artifacts"
+            + "\n    progress"
             + "\nWHERE"
-            + "\n    group_id = ?"
-            + "\n    AND artifact_id = ?";
+            + "\n    name = ?";
+
+    private static final String UPSERT_PROGRESS_SQL = "INSERT INTO progress(name, watermark)"
+            + "\n    VALUES (?, ?)"
+            + "\nON CONFLICT (name)"
+            + "\n    DO UPDATE SET"
+            + "\n        watermark = EXCLUDED.watermark";
+
+    private static final String DELETE_DEPENDENCIES_SQL = "DELETE FROM dependencies"
+            + "\nWHERE from_version_id > ?";
+
+    private static final String DELETE_IS_REPRODUCIBLE_SQL = "DELETE FROM is_reproducible"
+            + "\nWHERE version_id > ?";
 
-    private static final String INSERT_PARENT_SQL = "INSERT INTO parents(from_artifact_id, to_artifact_id)"
-            + "\nSELECT"
-            + "\n    versions.artifact_id,"
-            + "\n    artifacts.id"
+    private static final String DELETE_ARTIFACT_DEPENDENCY_COUNTS_SQL = "DELETE FROM artifact_dependency_counts";
+
+    private static final String SELECT_ARTIFACTS_SQL = "SELECT"
+            + "\n    id,"
+            + "\n    group_id,"
+            + "\n    artifact_id"
             + "\nFROM"
-            + "\n    artifacts"
-            + "\n    FULL OUTER JOIN versions ON TRUE"
-            + "\nWHERE"
-            + "\n    versions.id = ?"
-            + "\n    AND artifacts.group_id = ?"
-            + "\n    AND artifacts.artifact_id = ?"
-            + "\nON CONFLICT(from_artifact_id, to_artifact_id)"
-            + "\n    DO NOTHING";
+            + "\n    artifacts";
+
+    private static final String SELECT_MAX_VERSION_ID_SQL = "SELECT"
+            + "\n    coalesce(max(id), 0)"
+            + "\nFROM"
+            + "\n    versions";
+
+    private static final String SELECT_VERSIONS_SQL = "SELECT"
+            + "\n    id,"
+            + "\n    artifact_id"
+            + "\nFROM"
+            + "\n    versions";
+
+    private static final String SELECT_VERSION_COORDINATES_SQL = "SELECT"
+            + "\n    id,"
+            + "\n    artifact_id,"
+            + "\n    version"
+            + "\nFROM"
+            + "\n    versions";
+
+    private static final String SELECT_PARENTS_SQL = "SELECT"
+            + "\n    from_artifact_id,"
+            + "\n    to_artifact_id"
+            + "\nFROM"
+            + "\n    parents";
+
+    private static final String COPY_DEPENDENCIES_SQL = "COPY dependencies(from_version_id, to_artifact_id, version, scope, managed, resolved_version, resolved_scope) FROM STDIN";
+    private static final String COPY_PARENTS_SQL = "COPY parents(from_artifact_id, to_artifact_id) FROM STDIN";
+    private static final String COPY_IS_REPRODUCIBLE_SQL = "COPY is_reproducible(version_id) FROM STDIN";
+    private static final String COPY_ARTIFACT_DEPENDENCY_COUNTS_SQL = "COPY artifact_dependency_counts(from_artifact_id, to_artifact_id, cnt) FROM STDIN";
+
+    private static class Pom {
+        public static final Pom END = new Pom(0, null, null, null);
+
+        public final int versionId;
+        public final String value;
+        public final String version;
+        public final Checkpoint checkpoint;
+
+        public Pom(final int versionId, final String value, final String version, final Checkpoint checkpoint) {
+            this.versionId = versionId;
+            this.value = value;
+            this.version = version;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    private static class Checkpoint extends PomFacts {
+        public final int watermark;
+        public final CyclicBarrier parsed;
+        private final AtomicInteger writers = new AtomicInteger(3);
+
+        public Checkpoint(final int watermark, final BlockingQueue<PomFacts> dependencies,
+                final BlockingQueue<PomFacts> parents, final BlockingQueue<PomFacts> isReproducible) {
+            super(0, null, null, null, Collections.emptyList(), null, null, null, Collections.emptyMap());
+            this.watermark = watermark;
+            this.parsed = new CyclicBarrier(N_PARSER_THREADS, () -> {
+                try {
+                    dependencies.put(this);
+                    parents.put(this);
+                    isReproducible.put(this);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        public void committed(final Connection conn) throws SQLException {
+            if (writers.decrementAndGet() > 0)
+                return;
+
+            try (final PreparedStatement upsert = conn.prepareStatement(UPSERT_PROGRESS_SQL);) {
+                upsert.setString(1, PROGRESS_NAME);
+                upsert.setInt(2, watermark);
+                upsert.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    private static class PomCache {
+        private static final String VERSION_MASK = "@@project.version@@";
+
+        private final Map<ByteBuffer, PomFacts> cache = new LinkedHashMap<ByteBuffer, PomFacts>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, PomFacts> eldest) {
+                return size() > POM_CACHE_SIZE;
+            }
+        };
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        public PomFacts extract(final PomExtractor extractor, final MessageDigest digest, final Pom pom)
+                throws IOException, XmlPullParserException {
+            if (pom.version == null || pom.version.isEmpty() || pom.value.contains(VERSION_MASK))
+                return parse(extractor, pom.versionId, pom.value);
+
+            final String masked = pom.value.replace(">" + pom.version + "<", ">" + VERSION_MASK + "<");
+            final ByteBuffer key = ByteBuffer.wrap(digest.digest(masked.getBytes(StandardCharsets.UTF_8)));
+
+            PomFacts facts;
+            synchronized (cache) {
+                facts = cache.get(key);
+            }
+            if (facts != null) {
+                hits.incrementAndGet();
+                return facts.unmask(pom.versionId, VERSION_MASK, pom.version);
+            }
+
+            misses.incrementAndGet();
+            facts = parse(extractor, 0, masked);
+            synchronized (cache) {
+                cache.put(key, facts);
+            }
+            return facts.unmask(pom.versionId, VERSION_MASK, pom.version);
+        }
+
+        public String stats() {
+            final long h = hits.get();
+            final long m = misses.get();
+            return String.format("cache %d hits, %d misses (%.1f%%)", h, m, (h + m > 0) ? 100.0 * h / (h + m) : 0.0);
+        }
+
+        private static PomFacts parse(final PomExtractor extractor, final int versionId, final String pom)
+                throws IOException, XmlPullParserException {
+            return STREAMING_EXTRACTOR ? extractor.extract(versionId, pom) : extractor.read(versionId, pom);
+        }
+    }
+
+    private static class ArtifactIndex {
+        private int[] ids = new int[1 << 16];
+        private String[] groupIds = new String[1 << 16];
+        private String[] artifactIds = new String[1 << 16];
+        private int size = 0;
+
+        public void put(final String groupId, final String artifactId, final int id) {
+            if (2 * (size + 1) > ids.length)
+                grow();
+            final int mask = ids.length - 1;
+            int i = hash(groupId, artifactId) & mask;
+            while (ids[i] != 0) {
+                if (groupIds[i].equals(groupId) && artifactIds[i].equals(artifactId)) {
+                    ids[i] = id;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+            groupIds[i] = groupId;
+            artifactIds[i] = artifactId;
+            size++;
+        }
+
+        public int get(final String groupId, final String artifactId) {
+            if (groupId == null || artifactId == null)
+                return 0;
+            final int mask = ids.length - 1;
+            int i = hash(groupId, artifactId) & mask;
+            while (ids[i] != 0) {
+                if (groupIds[i].equals(groupId) && artifactIds[i].equals(artifactId))
+                    return ids[i];
+                i = (i + 1) & mask;
+            }
+            return 0;
+        }
+
+        private void grow() {
+            final int[] oldIds = ids;
+            final String[] oldGroupIds = groupIds;
+            final String[] oldArtifactIds = artifactIds;
+            ids = new int[oldIds.length * 2];
+            groupIds = new String[oldIds.length * 2];
+            artifactIds = new String[oldIds.length * 2];
+            size = 0;
+            for (int i = 0; i < oldIds.length; i++)
+                if (oldIds[i] != 0)
+                    put(oldGroupIds[i], oldArtifactIds[i], oldIds[i]);
+        }
+
+        private static int hash(final String groupId, final String artifactId) {
+            final int h = (groupId.hashCode() * 31 + artifactId.hashCode()) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static class VersionIndex {
+        private int[] ids = new int[1 << 16];
+        private int[] artifactIds = new int[1 << 16];
+        private String[] versions = new String[1 << 16];
+        private int size = 0;
+
+        public void put(final int artifactId, final String version, final int id) {
+            if (2 * (size + 1) > ids.length)
+                grow();
+            final int mask = ids.length - 1;
+            int i = hash(artifactId, version) & mask;
+            while (ids[i] != 0) {
+                if (artifactIds[i] == artifactId && versions[i].equals(version)) {
+                    ids[i] = id;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+            artifactIds[i] = artifactId;
+            versions[i] = version;
+            size++;
+        }
+
+        public int get(final int artifactId, final String version) {
+            if (artifactId == 0)
+                return 0;
+            final int mask = ids.length - 1;
+            int i = hash(artifactId, version) & mask;
+            while (ids[i] != 0) {
+                if (artifactIds[i] == artifactId && versions[i].equals(version))
+                    return ids[i];
+                i = (i + 1) & mask;
+            }
+            return 0;
+        }
+
+        private void grow() {
+            final int[] oldIds = ids;
+            final int[] oldArtifactIds = artifactIds;
+            final String[] oldVersions = versions;
+            ids = new int[oldIds.length * 2];
+            artifactIds = new int[oldIds.length * 2];
+            versions = new String[oldIds.length * 2];
+            size = 0;
+            for (int i = 0; i < oldIds.length; i++)
+                if (oldIds[i] != 0)
+                    put(oldArtifactIds[i], oldVersions[i], oldIds[i]);
+        }
+
+        private static int hash(final int artifactId, final String version) {
+            final int h = (artifactId * 31 + version.hashCode()) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static class PomFile {
+        public final int versionId;
+        public final String version;
+        public final Path path;
+
+        public PomFile(final int versionId, final String version, final Path path) {
+            this.versionId = versionId;
+            this.version = version;
+            this.path = path;
+        }
+    }
 
-    private static final String INSERT_IS_REPRODUCIBLE = "INSERT INTO is_reproducible(version_id)"
-            + "\n    VALUES (?)";
+    private static class MirrorSource implements EffectiveModelResolver.PomSource {
+        private final Path root;
+
+        public MirrorSource(final Path root) {
+            this.root = root;
+        }
+
+        @Override
+        public String pom(final String groupId, final String artifactId, final String version) throws IOException {
+            final Path path = root.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version)
+                    .resolve(artifactId + "-" + version + ".pom");
+            return Files.isRegularFile(path) ? new String(Files.readAllBytes(path), StandardCharsets.UTF_8) : null;
+        }
+    }
+
+    private static class ArchiveSource implements EffectiveModelResolver.PomSource {
+        private final Map<String, String> poms;
+
+        public ArchiveSource(final Map<String, String> poms) {
+            this.poms = poms;
+        }
+
+        @Override
+        public String pom(final String groupId, final String artifactId, final String version) {
+            return poms.get(groupId + ":" + artifactId + ":" + version);
+        }
+    }
+
+    private static class LongSet {
+        private long[] keys = new long[1 << 16];
+        private int size = 0;
+
+        public boolean add(final long key) {
+            if (2 * (size + 1) > keys.length)
+                grow();
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key)
+                    return false;
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            final long[] old = keys;
+            keys = new long[old.length * 2];
+            final int mask = keys.length - 1;
+            for (final long key : old) {
+                if (key == 0)
+                    continue;
+                int i = hash(key) & mask;
+                while (keys[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = key;
+            }
+        }
+
+        private static int hash(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static class DependencyCounts {
+        private long[] keys = new long[1 << 16];
+        private int[] counts = new int[1 << 16];
+        private int size = 0;
+        private final List<Path> runs = new ArrayList<>();
+
+        public void increment(final int fromArtifactId, final int toArtifactId) throws IOException {
+            if (2 * (size + 1) > keys.length) {
+                if (size >= DEPENDENCY_COUNTS_MEMORY_ENTRIES)
+                    spill();
+                else
+                    grow();
+            }
+            final long key = ((long) fromArtifactId << 32) | toArtifactId;
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    counts[i]++;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            counts[i] = 1;
+            size++;
+        }
+
+        public void write(final CopyBuffer copy) throws SQLException, IOException {
+            try {
+                if (runs.isEmpty()) {
+                    int batchCount = 0;
+                    for (final long key : sortedKeys()) {
+                        add(copy, key, get(key));
+                        if (++batchCount >= COPY_BATCH_SIZE) {
+                            copy.flush();
+                            batchCount = 0;
+                        }
+                    }
+                } else {
+                    spill();
+                    merge(copy);
+                }
+                copy.flush();
+            } finally {
+                for (final Path run : runs)
+                    Files.deleteIfExists(run);
+            }
+        }
+
+        private void merge(final CopyBuffer copy) throws SQLException, IOException {
+            final PriorityQueue<Run> queue = new PriorityQueue<>(runs.size(), (a, b) -> Long.compare(a.key, b.key));
+            final List<Run> open = new ArrayList<>();
+            try {
+                for (final Path path : runs) {
+                    final Run run = new Run(path);
+                    open.add(run);
+                    if (run.next())
+                        queue.add(run);
+                }
+                System.out.printf("Merging %d dependency count runs\n", runs.size());
+
+                int batchCount = 0;
+                while (!queue.isEmpty()) {
+                    final long key = queue.peek().key;
+                    int count = 0;
+                    while (!queue.isEmpty() && queue.peek().key == key) {
+                        final Run run = queue.poll();
+                        count += run.count;
+                        if (run.next())
+                            queue.add(run);
+                    }
+
+                    add(copy, key, count);
+                    if (++batchCount >= COPY_BATCH_SIZE) {
+                        copy.flush();
+                        batchCount = 0;
+                    }
+                }
+            } finally {
+                for (final Run run : open)
+                    run.in.close();
+            }
+        }
+
+        private void spill() throws IOException {
+            final Path path = Files.createTempFile("dependency-counts", ".bin");
+            runs.add(path);
+            try (
+                    final DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(path)));) {
+                out.writeInt(size);
+                for (final long key : sortedKeys()) {
+                    out.writeLong(key);
+                    out.writeInt(get(key));
+                }
+            }
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+
+        private long[] sortedKeys() {
+            final long[] sorted = new long[size];
+            int n = 0;
+            for (final long key : keys)
+                if (key != 0)
+                    sorted[n++] = key;
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private int get(final long key) {
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != key)
+                i = (i + 1) & mask;
+            return counts[i];
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            final int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == 0)
+                    continue;
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                counts[i] = oldCounts[j];
+            }
+        }
+
+        private static void add(final CopyBuffer copy, final long key, final int count) {
+            copy.add((int) (key >>> 32));
+            copy.add((int) key);
+            copy.add(count);
+            copy.endRow();
+        }
+
+        private static int hash(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static class Run {
+            public final DataInputStream in;
+            private int remaining;
+            public long key;
+            public int count;
+
+            public Run(final Path path) throws IOException {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                this.remaining = in.readInt();
+            }
+
+            public boolean next() throws IOException {
+                if (remaining == 0)
+                    return false;
+                remaining--;
+                key = in.readLong();
+                count = in.readInt();
+                return true;
+            }
+        }
+    }
+
+    private static class CopyBuffer {
+        private final CopyManager copyManager;
+        private final String sql;
+        private final StringBuilder sb = new StringBuilder();
+        private boolean rowStart = true;
+
+        public CopyBuffer(final Connection conn, final String sql) throws SQLException {
+            this.copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+            this.sql = sql;
+        }
+
+        public void add(final int value) {
+            separator();
+            sb.append(value);
+        }
+
+        public void add(final boolean value) {
+            separator();
+            sb.append(value ? 't' : 'f');
+        }
+
+        public void add(final String value) {
+            separator();
+            if (value == null) {
+                sb.append("\\N");
+                return;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                final char ch = value.charAt(i);
+                switch (ch) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    default:
+                        sb.append(ch);
+                }
+            }
+        }
+
+        public void endRow() {
+            sb.append('\n');
+            rowStart = true;
+        }
+
+        public void flush() throws SQLException, IOException {
+            if (sb.length() == 0)
+                return;
+            copyManager.copyIn(sql, new StringReader(sb.toString()));
+            sb.setLength(0);
+        }
+
+        private void separator() {
+            if (!rowStart)
+                sb.append('\t');
+            rowStart = false;
+        }
+    }
 
     public static void main(final String[] args) throws Exception {
+        final BlockingQueue<Pom> poms = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<PomFacts> dependencies = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<PomFacts> parents = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<PomFacts> isReproducible = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final ArtifactIndex artifacts = new ArtifactIndex();
+        final int[] versionArtifacts;
+        final int watermark;
+        final LongSet parentPairs = new LongSet();
+        final PomCache cache = new PomCache();
+        final EffectiveModelResolver.ParentCache parentCache = new EffectiveModelResolver.ParentCache(
+                PARENT_CACHE_SIZE);
+
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            loadArtifacts(conn, artifacts);
+            versionArtifacts = loadVersionArtifacts(conn);
+            watermark = loadWatermark(conn);
+            for (final String sql : new String[] { DELETE_DEPENDENCIES_SQL, DELETE_IS_REPRODUCIBLE_SQL }) {
+                try (final PreparedStatement delete = conn.prepareStatement(sql);) {
+                    delete.setInt(1, watermark);
+                    delete.executeUpdate();
+                }
+            }
+            loadParents(conn, parentPairs);
+            if (AGGREGATE_DEPENDENCY_COUNTS && watermark == 0) {
+                try (final PreparedStatement delete = conn.prepareStatement(DELETE_ARTIFACT_DEPENDENCY_COUNTS_SQL);) {
+                    delete.executeUpdate();
+                }
+            }
+            conn.commit();
+        }
+        if (watermark > 0)
+            System.out.printf("Resuming after version %d\n", watermark);
+        final DependencyCounts dependencyCounts = (AGGREGATE_DEPENDENCY_COUNTS && watermark == 0)
+                ? new DependencyCounts()
+                : null;
+
+        final Path source = (POM_SOURCE != null) ? Paths.get(POM_SOURCE) : null;
+        final FileSystem fs = (source != null && !isTar(source) && !Files.isDirectory(source))
+                ? FileSystems.newFileSystem(source, (ClassLoader) null)
+                : null;
+        final Path root = (fs != null) ? fs.getPath("/") : source;
+        final EffectiveModelResolver.PomSource parentSource = (source == null)
+                ? null
+                : isTar(source) ? new ArchiveSource(loadArchiveParents(source)) : new MirrorSource(root);
+
+        final ExecutorService parsers = Executors.newFixedThreadPool(N_PARSER_THREADS);
+        final ExecutorService writers = Executors.newFixedThreadPool(3);
+        final Thread reader = Thread.currentThread();
+        try {
+            final List<Future<?>> parserFutures = new ArrayList<>();
+            for (int i = 0; i < N_PARSER_THREADS; i++) {
+                parserFutures.add(submit(parsers, reader, () -> {
+                    parse(poms, cache, parentCache, parentSource, dependencies, parents, isReproducible);
+                    return null;
+                }));
+            }
+
+            final List<Future<?>> writerFutures = new ArrayList<>();
+            writerFutures.add(submit(writers, reader, () -> {
+                writeDependencies(dependencies, artifacts, versionArtifacts, dependencyCounts);
+                return null;
+            }));
+            writerFutures.add(submit(writers, reader, () -> {
+                writeParents(parents, artifacts, versionArtifacts, parentPairs);
+                return null;
+            }));
+            writerFutures.add(submit(writers, reader, () -> {
+                writeIsReproducible(isReproducible);
+                return null;
+            }));
+
+            if (source == null)
+                read(poms, cache, watermark, dependencies, parents, isReproducible);
+            else
+                readFiles(poms, cache, watermark, source, root, artifacts, dependencies, parents, isReproducible);
+            for (int i = 0; i < N_PARSER_THREADS; i++)
+                poms.put(Pom.END);
+
+            for (final Future<?> future : parserFutures)
+                future.get();
+            dependencies.put(PomFacts.END);
+            parents.put(PomFacts.END);
+            isReproducible.put(PomFacts.END);
+
+            for (final Future<?> future : writerFutures)
+                future.get();
+
+            System.out.println(cache.stats());
+            System.out.println(parentCache.stats());
+        } finally {
+            parsers.shutdownNow();
+            writers.shutdownNow();
+            if (fs != null)
+                fs.close();
+        }
+    }
+
+    private static Future<?> submit(final ExecutorService executor, final Thread reader, final Callable<Void> task) {
+        return executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                System.err.println(e);
+                reader.interrupt();
+                throw e;
+            }
+        });
+    }
+
+    private static void read(final BlockingQueue<Pom> poms, final PomCache cache, final int watermark,
+            final BlockingQueue<PomFacts> dependencies, final BlockingQueue<PomFacts> parents,
+            final BlockingQueue<PomFacts> isReproducible) throws SQLException, InterruptedException {
         try (
                 final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
                 final PreparedStatement select = conn.prepareStatement(
-                        SELECT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                final PreparedStatement insertDependency = conn.prepareStatement(INSERT_DEPENDENCY_SQL);
-                final PreparedStatement insertParent = conn.prepareStatement(INSERT_PARENT_SQL);
-                final PreparedStatement insertIsReproducible = conn.prepareStatement(INSERT_IS_REPRODUCIBLE);) {
+                        SELECT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
             conn.setAutoCommit(false);
             select.setFetchSize(FETCH_SIZE);
-            final ResultSet rs = select.executeQuery();
 
             int rowCount = 0;
-            int dependencyBatchCount = 0;
-            int parentBatchCount = 0;
-            int isReproducibleBatchCount = 0;
-            final MavenXpp3Reader reader = new MavenXpp3Reader();
+            int lastVersionId = watermark;
 
-            while (rs.next()) {
-                rowCount++;
-                if (rowCount % 100000 == 0)
-                    System.out.println(rowCount);
+            while (true) {
+                select.setInt(1, lastVersionId);
+                select.setInt(2, PAGE_SIZE);
+                final ResultSet rs = select.executeQuery();
+                int pageCount = 0;
+
+                while (rs.next()) {
+                    rowCount++;
+                    pageCount++;
+                    if (rowCount % 100000 == 0)
+                        System.out.printf("%d, %s\n", rowCount, cache.stats());
+
+                    lastVersionId = rs.getInt(1);
+                    poms.put(new Pom(lastVersionId, rs.getString(2), rs.getString(3), null));
+                }
+                conn.commit();
+
+                if (pageCount == 0)
+                    break;
+
+                checkpoint(poms, lastVersionId, dependencies, parents, isReproducible);
+            }
+        }
+    }
+
+    private static void readFiles(final BlockingQueue<Pom> poms, final PomCache cache, final int watermark,
+            final Path source, final Path root, final ArtifactIndex artifacts,
+            final BlockingQueue<PomFacts> dependencies, final BlockingQueue<PomFacts> parents,
+            final BlockingQueue<PomFacts> isReproducible) throws SQLException, InterruptedException, IOException {
+        final VersionIndex versions;
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            versions = loadVersionIndex(conn);
+            conn.commit();
+        }
+
+        if (isTar(source)) {
+            if (watermark > 0)
+                throw new IllegalStateException("Archive " + source + " cannot be resumed, clear progress first");
+            readTar(poms, cache, source, artifacts, versions, dependencies, parents, isReproducible);
+            return;
+        }
+
+        final List<PomFile> files = new ArrayList<>();
+        try (final Stream<Path> paths = Files.walk(root);) {
+            final Iterator<Path> it = paths.iterator();
+            while (it.hasNext()) {
+                final Path path = it.next();
+                final String[] coordinates = coordinates(root.relativize(path).toString());
+                if (coordinates == null)
+                    continue;
+
+                final int versionId = versions.get(artifacts.get(coordinates[0], coordinates[1]), coordinates[2]);
+                if (versionId > watermark)
+                    files.add(new PomFile(versionId, coordinates[2], path));
+            }
+        }
+        files.sort((a, b) -> Integer.compare(a.versionId, b.versionId));
+        System.out.printf("Found %d POM files in %s\n", files.size(), source);
+
+        int rowCount = 0;
+        for (final PomFile file : files) {
+            poms.put(new Pom(file.versionId, new String(Files.readAllBytes(file.path), StandardCharsets.UTF_8),
+                    file.version, null));
+            if (++rowCount % 100000 == 0)
+                System.out.printf("%d, %s\n", rowCount, cache.stats());
+            if (rowCount % PAGE_SIZE == 0)
+                checkpoint(poms, file.versionId, dependencies, parents, isReproducible);
+        }
+        if (rowCount % PAGE_SIZE != 0)
+            checkpoint(poms, files.get(files.size() - 1).versionId, dependencies, parents, isReproducible);
+    }
+
+    private static void readTar(final BlockingQueue<Pom> poms, final PomCache cache, final Path source,
+            final ArtifactIndex artifacts, final VersionIndex versions, final BlockingQueue<PomFacts> dependencies,
+            final BlockingQueue<PomFacts> parents, final BlockingQueue<PomFacts> isReproducible)
+            throws InterruptedException, IOException {
+        final String name = source.getFileName().toString();
+        try (
+                final InputStream in = new BufferedInputStream(Files.newInputStream(source));
+                final TarArchiveInputStream tar = new TarArchiveInputStream(
+                        name.endsWith(".tar") ? in : new GZIPInputStream(in));) {
+            int rowCount = 0;
+            int maxVersionId = 0;
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (!entry.isFile())
+                    continue;
+                final String[] coordinates = coordinates(entry.getName());
+                if (coordinates == null)
+                    continue;
+                final int versionId = versions.get(artifacts.get(coordinates[0], coordinates[1]), coordinates[2]);
+                if (versionId == 0)
+                    continue;
+
+                final byte[] bytes = new byte[(int) entry.getSize()];
+                IOUtils.readFully(tar, bytes);
+                poms.put(new Pom(versionId, new String(bytes, StandardCharsets.UTF_8), coordinates[2], null));
+                maxVersionId = Math.max(maxVersionId, versionId);
+                if (++rowCount % 100000 == 0)
+                    System.out.printf("%d, %s\n", rowCount, cache.stats());
+            }
+
+            if (rowCount > 0)
+                checkpoint(poms, maxVersionId, dependencies, parents, isReproducible);
+        }
+    }
+
+    private static boolean isTar(final Path source) {
+        final String name = source.getFileName().toString();
+        return name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    private static Map<String, String> loadArchiveParents(final Path source) throws IOException {
+        final Map<String, String> parents = new HashMap<>();
+        final String name = source.getFileName().toString();
+        try (
+                final InputStream in = new BufferedInputStream(Files.newInputStream(source));
+                final TarArchiveInputStream tar = new TarArchiveInputStream(
+                        name.endsWith(".tar") ? in : new GZIPInputStream(in));) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (!entry.isFile())
+                    continue;
+                final String[] coordinates = coordinates(entry.getName());
+                if (coordinates == null)
+                    continue;
+
+                final byte[] bytes = new byte[(int) entry.getSize()];
+                IOUtils.readFully(tar, bytes);
+                final String pom = new String(bytes, StandardCharsets.UTF_8);
+                if (POM_PACKAGING.matcher(pom).find())
+                    parents.put(coordinates[0] + ":" + coordinates[1] + ":" + coordinates[2], pom);
+            }
+        }
+        System.out.printf("Indexed %d parent POMs in %s\n", parents.size(), source);
+        return parents;
+    }
+
+    private static String[] coordinates(final String path) {
+        final String[] segments = path.replace('\\', '/').split("/");
+        int start = 0;
+        while (start < segments.length && (segments[start].isEmpty() || segments[start].equals(".")))
+            start++;
+        final int n = segments.length - start;
+        if (n < 4)
+            return null;
+
+        final String artifactId = segments[segments.length - 3];
+        final String version = segments[segments.length - 2];
+        if (!segments[segments.length - 1].equals(artifactId + "-" + version + ".pom"))
+            return null;
+
+        final StringBuilder groupId = new StringBuilder(segments[start]);
+        for (int i = start + 1; i < segments.length - 3; i++)
+            groupId.append('.').append(segments[i]);
+        return new String[] { groupId.toString(), artifactId, version };
+    }
+
+    private static void checkpoint(final BlockingQueue<Pom> poms, final int watermark,
+            final BlockingQueue<PomFacts> dependencies, final BlockingQueue<PomFacts> parents,
+            final BlockingQueue<PomFacts> isReproducible) throws InterruptedException {
+        final Checkpoint checkpoint = new Checkpoint(watermark, dependencies, parents, isReproducible);
+        for (int i = 0; i < N_PARSER_THREADS; i++)
+            poms.put(new Pom(0, null, null, checkpoint));
+    }
+
+    private static void parse(final BlockingQueue<Pom> poms, final PomCache cache,
+            final EffectiveModelResolver.ParentCache parentCache, final EffectiveModelResolver.PomSource parentSource,
+            final BlockingQueue<PomFacts> dependencies, final BlockingQueue<PomFacts> parents,
+            final BlockingQueue<PomFacts> isReproducible)
+            throws SQLException, IOException, InterruptedException, NoSuchAlgorithmException, BrokenBarrierException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            final PomExtractor extractor = new PomExtractor();
+            final EffectiveModelResolver resolver = new EffectiveModelResolver(parentCache, extractor,
+                    (parentSource != null) ? parentSource : new EffectiveModelResolver.DatabaseSource(conn));
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            while (true) {
+                final Pom pom = poms.take();
+                if (pom == Pom.END)
+                    return;
+                if (pom.checkpoint != null) {
+                    pom.checkpoint.parsed.await();
+                    continue;
+                }
 
-                final int versionId = rs.getInt(1);
-                final String pomS = rs.getString(2);
-                final Model pom;
+                final PomFacts extracted;
                 try {
-                    pom = reader.read(new StringReader(pomS));
+                    extracted = cache.extract(extractor, digest, pom);
                 } catch (Exception e) {
                     System.err.println(e);
                     continue;
                 }
+                final PomFacts facts = resolver.resolve(extracted);
 
-                for (final Dependency dependency : pom.getDependencies()) {
-                    insertDependency(insertDependency, versionId, dependency.getVersion(), dependency.getScope(), false,
-                            dependency.getGroupId(), dependency.getArtifactId());
-                    dependencyBatchCount++;
+                if (!facts.dependencies.isEmpty())
+                    dependencies.put(facts);
+                if (facts.parentGroupId != null || facts.parentArtifactId != null)
+                    parents.put(facts);
+                if (facts.isReproducible)
+                    isReproducible.put(facts);
+            }
+        }
+    }
 
-                }
+    private static void loadArtifacts(final Connection conn, final ArtifactIndex artifacts) throws SQLException {
+        final Map<String, String> groupIds = new HashMap<>();
+        try (
+                final PreparedStatement select = conn.prepareStatement(
+                        SELECT_ARTIFACTS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            select.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                final String groupId = groupIds.computeIfAbsent(rs.getString(2), k -> k);
+                artifacts.put(groupId, rs.getString(3), rs.getInt(1));
+            }
+        }
+    }
 
-                final DependencyManagement dependencyManagement = pom.getDependencyManagement();
-                if (dependencyManagement != null) {
-                    for (final Dependency dependency : dependencyManagement.getDependencies()) {
-                        insertDependency(insertDependency, versionId, dependency.getVersion(), dependency.getScope(),
-                                true,
-                                dependency.getGroupId(), dependency.getArtifactId());
-                        dependencyBatchCount++;
+    private static int[] loadVersionArtifacts(final Connection conn) throws SQLException {
+        final int[] versionArtifacts;
+        try (
+                final PreparedStatement select = conn.prepareStatement(SELECT_MAX_VERSION_ID_SQL);) {
+            final ResultSet rs = select.executeQuery();
+            rs.next();
+            versionArtifacts = new int[rs.getInt(1) + 1];
+        }
 
-                    }
-                }
+        try (
+                final PreparedStatement select = conn.prepareStatement(
+                        SELECT_VERSIONS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            select.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = select.executeQuery();
+            while (rs.next())
+                versionArtifacts[rs.getInt(1)] = rs.getInt(2);
+        }
+        return versionArtifacts;
+    }
+
+    private static int loadWatermark(final Connection conn) throws SQLException {
+        try (final PreparedStatement select = conn.prepareStatement(SELECT_PROGRESS_SQL);) {
+            select.setString(1, PROGRESS_NAME);
+            final ResultSet rs = select.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static VersionIndex loadVersionIndex(final Connection conn) throws SQLException {
+        final VersionIndex versions = new VersionIndex();
+        try (
+                final PreparedStatement select = conn.prepareStatement(
+                        SELECT_VERSION_COORDINATES_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            select.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = select.executeQuery();
+            while (rs.next())
+                versions.put(rs.getInt(2), rs.getString(3), rs.getInt(1));
+        }
+        return versions;
+    }
 
-                final Parent parent = pom.getParent();
-                if (parent != null) {
-                    insertParent(insertParent, versionId, parent.getGroupId(), parent.getArtifactId());
-                    parentBatchCount++;
+    private static void loadParents(final Connection conn, final LongSet parentPairs) throws SQLException {
+        try (
+                final PreparedStatement select = conn.prepareStatement(
+                        SELECT_PARENTS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            select.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = select.executeQuery();
+            while (rs.next())
+                parentPairs.add(((long) rs.getInt(1) << 32) | rs.getInt(2));
+        }
+    }
+
+    private static void writeDependencies(final BlockingQueue<PomFacts> dependencies, final ArtifactIndex artifacts,
+            final int[] versionArtifacts, final DependencyCounts dependencyCounts)
+            throws SQLException, InterruptedException, IOException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final CopyBuffer copyDependencies = new CopyBuffer(conn, COPY_DEPENDENCIES_SQL);
+            int dependencyBatchCount = 0;
+
+            while (true) {
+                final PomFacts facts = dependencies.take();
+                if (facts == PomFacts.END)
+                    break;
+                if (facts instanceof Checkpoint) {
+                    copyDependencies.flush();
+                    conn.commit();
+                    ((Checkpoint) facts).committed(conn);
+                    continue;
                 }
 
-                final Properties props = pom.getProperties();
-                final boolean isReproducible = props.get("project.build.outputTimestamp") != null;
-                if (isReproducible) {
-                    insertIsReproducible(insertIsReproducible, versionId);
-                    isReproducibleBatchCount++;
+                for (final DependencyFacts dependency : facts.dependencies) {
+                    final int artifactId = artifacts.get(dependency.groupId, dependency.artifactId);
+                    if (artifactId == 0)
+                        continue;
+
+                    copyDependencies.add(facts.versionId);
+                    copyDependencies.add(artifactId);
+                    copyDependencies.add(dependency.version);
+                    copyDependencies.add(dependency.scope);
+                    copyDependencies.add(dependency.managed);
+                    copyDependencies.add(dependency.resolvedVersion);
+                    copyDependencies.add(dependency.resolvedScope);
+                    copyDependencies.endRow();
+                    dependencyBatchCount++;
+
+                    if (dependencyCounts != null && facts.versionId < versionArtifacts.length
+                            && versionArtifacts[facts.versionId] != 0)
+                        dependencyCounts.increment(versionArtifacts[facts.versionId], artifactId);
                 }
 
-                if (dependencyBatchCount >= BATCH_SIZE) {
-                    flushBatch(insertDependency);
+                if (dependencyBatchCount >= COPY_BATCH_SIZE) {
+                    copyDependencies.flush();
                     dependencyBatchCount = 0;
                 }
+            }
 
-                if (parentBatchCount >= BATCH_SIZE) {
-                    flushBatch(insertParent);
-                    parentBatchCount = 0;
+            copyDependencies.flush();
+            if (dependencyCounts != null)
+                dependencyCounts.write(new CopyBuffer(conn, COPY_ARTIFACT_DEPENDENCY_COUNTS_SQL));
+
+            conn.commit();
+        }
+    }
+
+    private static void writeParents(final BlockingQueue<PomFacts> parents, final ArtifactIndex artifacts,
+            final int[] versionArtifacts, final LongSet parentPairs)
+            throws SQLException, InterruptedException, IOException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final CopyBuffer copyParents = new CopyBuffer(conn, COPY_PARENTS_SQL);
+            int parentBatchCount = 0;
+
+            while (true) {
+                final PomFacts facts = parents.take();
+                if (facts == PomFacts.END)
+                    break;
+                if (facts instanceof Checkpoint) {
+                    copyParents.flush();
+                    conn.commit();
+                    ((Checkpoint) facts).committed(conn);
+                    continue;
                 }
 
-                if (isReproducibleBatchCount >= BATCH_SIZE) {
-                    flushBatch(insertIsReproducible);
-                    isReproducibleBatchCount = 0;
+                final int fromArtifactId = (facts.versionId < versionArtifacts.length)
+                        ? versionArtifacts[facts.versionId]
+                        : 0;
+                final int toArtifactId = artifacts.get(facts.parentGroupId, facts.parentArtifactId);
+                if (fromArtifactId == 0 || toArtifactId == 0
+                        || !parentPairs.add(((long) fromArtifactId << 32) | toArtifactId))
+                    continue;
+
+                copyParents.add(fromArtifactId);
+                copyParents.add(toArtifactId);
+                copyParents.endRow();
+                parentBatchCount++;
+
+                if (parentBatchCount >= COPY_BATCH_SIZE) {
+                    copyParents.flush();
+                    parentBatchCount = 0;
                 }
             }
 
-            flushBatch(insertDependency);
-            flushBatch(insertParent);
-            flushBatch(insertIsReproducible);
+            copyParents.flush();
 
             conn.commit();
         }
     }
 
-    private static void insertDependency(final PreparedStatement insert, final int versionId, final String version,
-            final String scope, final boolean managed, final String groupId, final String artifactId)
-            throws SQLException {
-        insert.setInt(1, versionId);
-        insert.setString(2, version);
-        insert.setString(3, scope);
-        insert.setBoolean(4, managed);
-        insert.setString(5, groupId);
-        insert.setString(6, artifactId);
-        insert.addBatch();
-    }
+    private static void writeIsReproducible(final BlockingQueue<PomFacts> isReproducible)
+            throws SQLException, InterruptedException, IOException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final CopyBuffer copyIsReproducible = new CopyBuffer(conn, COPY_IS_REPRODUCIBLE_SQL);
+            int isReproducibleBatchCount = 0;
 
-    private static void insertParent(final PreparedStatement insert, final int versionId, final String groupId,
-            final String artifactId) throws SQLException {
-        insert.setInt(1, versionId);
-        insert.setString(2, groupId);
-        insert.setString(3, artifactId);
-        insert.addBatch();
-    }
+            while (true) {
+                final PomFacts facts = isReproducible.take();
+                if (facts == PomFacts.END)
+                    break;
+                if (facts instanceof Checkpoint) {
+                    copyIsReproducible.flush();
+                    conn.commit();
+                    ((Checkpoint) facts).committed(conn);
+                    continue;
+                }
 
-    private static void insertIsReproducible(final PreparedStatement insert, final int versionId) throws SQLException {
-        insert.setInt(1, versionId);
-        insert.addBatch();
-    }
+                copyIsReproducible.add(facts.versionId);
+                copyIsReproducible.endRow();
+                isReproducibleBatchCount++;
+
+                if (isReproducibleBatchCount >= COPY_BATCH_SIZE) {
+                    copyIsReproducible.flush();
+                    isReproducibleBatchCount = 0;
+                }
+            }
+
+            copyIsReproducible.flush();
 
-    private static void flushBatch(final PreparedStatement statement)
-            throws SQLException {
-        statement.executeBatch();
-        statement.clearBatch();
+            conn.commit();
+        }
     }
 }
@@ -0,0 +1,27 @@
+package net.w_graj.dependencies;
+
+public class DependencyFacts {
+    public final String groupId;
+    public final String artifactId;
+    public final String version;
+    public final String scope;
+    public final boolean managed;
+    public final String resolvedVersion;
+    public final String resolvedScope;
+
+    public DependencyFacts(final String groupId, final String artifactId, final String version,
+            final String scope, final boolean managed) {
+        this(groupId, artifactId, version, scope, managed, null, null);
+    }
+
+    public DependencyFacts(final String groupId, final String artifactId, final String version,
+            final String scope, final boolean managed, final String resolvedVersion, final String resolvedScope) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.scope = scope;
+        this.managed = managed;
+        this.resolvedVersion = resolvedVersion;
+        this.resolvedScope = resolvedScope;
+    }
+}
@@ -0,0 +1,261 @@
+package net.w_graj.dependencies;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EffectiveModelResolver {
+    private static final int MAX_PARENT_DEPTH = 16;
+    private static final int MAX_INTERPOLATION_DEPTH = 8;
+    private static final String DEFAULT_SCOPE = "compile";
+    private static final String IMPORT_SCOPE = "import";
+
+    private static final String SELECT_POM_SQL = "SELECT"
+            + "\n    poms.value"
+            + "\nFROM"
+            + "\n    artifacts"
+            + "\n    JOIN versions ON versions.artifact_id = artifacts.id"
+            + "\n    JOIN poms ON poms.version_id = versions.id"
+            + "\nWHERE"
+            + "\n    artifacts.group_id = ?"
+            + "\n    AND artifacts.artifact_id = ?"
+            + "\n    AND versions.version = ?";
+
+    private static class EffectiveModel {
+        public static final EffectiveModel EMPTY = new EffectiveModel(Collections.emptyMap(),
+                Collections.emptyMap());
+
+        public final Map<String, String> properties;
+        public final Map<String, DependencyFacts> managed;
+
+        public EffectiveModel(final Map<String, String> properties, final Map<String, DependencyFacts> managed) {
+            this.properties = properties;
+            this.managed = managed;
+        }
+    }
+
+    public interface PomSource {
+        public abstract String pom(String groupId, String artifactId, String version)
+                throws SQLException, IOException;
+    }
+
+    public static class DatabaseSource implements PomSource {
+        private final PreparedStatement selectPom;
+
+        public DatabaseSource(final Connection conn) throws SQLException {
+            this.selectPom = conn.prepareStatement(SELECT_POM_SQL);
+        }
+
+        @Override
+        public String pom(final String groupId, final String artifactId, final String version) throws SQLException {
+            selectPom.setString(1, groupId);
+            selectPom.setString(2, artifactId);
+            selectPom.setString(3, version);
+            try (final ResultSet rs = selectPom.executeQuery();) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    public static class ParentCache {
+        private final Map<String, EffectiveModel> cache;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        public ParentCache(final int size) {
+            this.cache = new LinkedHashMap<String, EffectiveModel>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, EffectiveModel> eldest) {
+                    return size() > size;
+                }
+            };
+        }
+
+        public String stats() {
+            final long h = hits.get();
+            final long m = misses.get();
+            return String.format("parent cache %d hits, %d misses (%.1f%%)", h, m,
+                    (h + m > 0) ? 100.0 * h / (h + m) : 0.0);
+        }
+
+        private EffectiveModel get(final String key) {
+            final EffectiveModel model;
+            synchronized (cache) {
+                model = cache.get(key);
+            }
+            if (model != null)
+                hits.incrementAndGet();
+            else
+                misses.incrementAndGet();
+            return model;
+        }
+
+        private void put(final String key, final EffectiveModel model) {
+            synchronized (cache) {
+                cache.put(key, model);
+            }
+        }
+    }
+
+    private final ParentCache cache;
+    private final PomExtractor extractor;
+    private final PomSource source;
+
+    public EffectiveModelResolver(final ParentCache cache, final PomExtractor extractor, final PomSource source) {
+        this.cache = cache;
+        this.extractor = extractor;
+        this.source = source;
+    }
+
+    public PomFacts resolve(final PomFacts facts) throws SQLException, IOException {
+        final EffectiveModel model = model(facts, 0);
+        final List<DependencyFacts> resolved = new ArrayList<>(facts.dependencies.size());
+        for (final DependencyFacts dependency : facts.dependencies)
+            resolved.add(resolve(dependency, model));
+        return facts.withDependencies(resolved);
+    }
+
+    private static DependencyFacts resolve(final DependencyFacts dependency, final EffectiveModel model) {
+        final String groupId = interpolate(dependency.groupId, model.properties);
+        final String artifactId = interpolate(dependency.artifactId, model.properties);
+        String version = interpolate(dependency.version, model.properties);
+        String scope = interpolate(dependency.scope, model.properties);
+
+        if (!dependency.managed) {
+            final DependencyFacts managed = model.managed.get(groupId + ":" + artifactId);
+            if (managed != null) {
+                if (version == null)
+                    version = interpolate(managed.version, model.properties);
+                if (scope == null)
+                    scope = interpolate(managed.scope, model.properties);
+            }
+            if (scope == null)
+                scope = DEFAULT_SCOPE;
+        }
+
+        return new DependencyFacts((groupId != null) ? groupId : dependency.groupId,
+                (artifactId != null) ? artifactId : dependency.artifactId, dependency.version, dependency.scope,
+                dependency.managed, version, scope);
+    }
+
+    private EffectiveModel model(final PomFacts facts, final int depth) throws SQLException, IOException {
+        final EffectiveModel parent = parent(facts.parentGroupId, facts.parentArtifactId, facts.parentVersion,
+                depth + 1);
+
+        final Map<String, String> properties = new HashMap<>(parent.properties);
+        properties.putAll(facts.properties);
+        final String groupId = (facts.groupId != null) ? facts.groupId : facts.parentGroupId;
+        final String version = (facts.version != null) ? facts.version : facts.parentVersion;
+        for (final String prefix : new String[] { "project.", "pom.", "" }) {
+            putProperty(properties, prefix + "groupId", groupId);
+            putProperty(properties, prefix + "artifactId", facts.artifactId);
+            putProperty(properties, prefix + "version", version);
+        }
+        putProperty(properties, "project.parent.groupId", facts.parentGroupId);
+        putProperty(properties, "project.parent.artifactId", facts.parentArtifactId);
+        putProperty(properties, "project.parent.version", facts.parentVersion);
+        putProperty(properties, "parent.version", facts.parentVersion);
+
+        final Map<String, DependencyFacts> managed = new HashMap<>(parent.managed);
+        final List<DependencyFacts> imports = new ArrayList<>();
+        for (final DependencyFacts dependency : facts.dependencies) {
+            if (!dependency.managed)
+                continue;
+            if (IMPORT_SCOPE.equals(interpolate(dependency.scope, properties)))
+                imports.add(dependency);
+            else
+                managed.put(interpolate(dependency.groupId, properties) + ":"
+                        + interpolate(dependency.artifactId, properties), dependency);
+        }
+
+        for (final DependencyFacts dependency : imports) {
+            final EffectiveModel bom = parent(interpolate(dependency.groupId, properties),
+                    interpolate(dependency.artifactId, properties), interpolate(dependency.version, properties),
+                    depth + 1);
+            for (final Map.Entry<String, DependencyFacts> entry : bom.managed.entrySet()) {
+                final DependencyFacts imported = entry.getValue();
+                managed.putIfAbsent(entry.getKey(), new DependencyFacts(imported.groupId, imported.artifactId,
+                        interpolate(imported.version, bom.properties), interpolate(imported.scope, bom.properties),
+                        true));
+            }
+        }
+
+        return new EffectiveModel(properties, managed);
+    }
+
+    private EffectiveModel parent(final String groupId, final String artifactId, final String version,
+            final int depth) throws SQLException, IOException {
+        if (groupId == null || artifactId == null || version == null)
+            return EffectiveModel.EMPTY;
+
+        final String key = groupId + ":" + artifactId + ":" + version;
+        EffectiveModel model = cache.get(key);
+        if (model != null)
+            return model;
+
+        model = EffectiveModel.EMPTY;
+        if (depth <= MAX_PARENT_DEPTH) {
+            final String pom = source.pom(groupId, artifactId, version);
+            if (pom != null) {
+                try {
+                    model = model(extractor.extract(0, pom), depth);
+                } catch (Exception e) {
+                    System.err.println(e);
+                }
+            }
+        }
+
+        cache.put(key, model);
+        return model;
+    }
+
+    private static void putProperty(final Map<String, String> properties, final String name, final String value) {
+        if (value != null)
+            properties.put(name, value);
+    }
+
+    private static String interpolate(final String value, final Map<String, String> properties) {
+        if (value == null || value.indexOf("${") < 0)
+            return value;
+
+        String interpolated = value;
+        for (int i = 0; i < MAX_INTERPOLATION_DEPTH; i++) {
+            final StringBuilder sb = new StringBuilder(interpolated.length());
+            int from = 0;
+            boolean replaced = false;
+            while (true) {
+                final int start = interpolated.indexOf("${", from);
+                final int end = (start >= 0) ? interpolated.indexOf('}', start + 2) : -1;
+                if (end < 0) {
+                    sb.append(interpolated, from, interpolated.length());
+                    break;
+                }
+
+                final String property = properties.get(interpolated.substring(start + 2, end));
+                sb.append(interpolated, from, start);
+                if (property != null) {
+                    sb.append(property);
+                    replaced = true;
+                } else {
+                    sb.append(interpolated, start, end + 1);
+                }
+                from = end + 1;
+            }
+
+            interpolated = sb.toString();
+            if (!replaced || interpolated.indexOf("${") < 0)
+                break;
+        }
+
+        return (interpolated.indexOf("${") < 0) ? interpolated : null;
+    }
+}
@@ -0,0 +1,202 @@
+package net.w_graj.dependencies;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.xml.pull.EntityReplacementMap;
+import org.codehaus.plexus.util.xml.pull.MXParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+public class PomExtractor {
+    public static final String OUTPUT_TIMESTAMP = "project.build.outputTimestamp";
+
+    private final MXParser parser = new MXParser(EntityReplacementMap.defaultEntityReplacementMap);
+    private final MavenXpp3Reader reader = new MavenXpp3Reader();
+    private final List<DependencyFacts> dependencies = new ArrayList<>();
+    private final List<DependencyFacts> managedDependencies = new ArrayList<>();
+    private String groupId;
+    private String artifactId;
+    private String version;
+    private String parentGroupId;
+    private String parentArtifactId;
+    private String parentVersion;
+    private Map<String, String> properties;
+
+    public PomFacts extract(final int versionId, final String pom) throws IOException, XmlPullParserException {
+        try {
+            return stream(versionId, pom);
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            return read(versionId, pom);
+        }
+    }
+
+    public PomFacts read(final int versionId, final String pom) throws IOException, XmlPullParserException {
+        return PomFacts.of(versionId, reader.read(new StringReader(pom)));
+    }
+
+    private PomFacts stream(final int versionId, final String pom) throws IOException, XmlPullParserException {
+        dependencies.clear();
+        managedDependencies.clear();
+        groupId = null;
+        artifactId = null;
+        version = null;
+        parentGroupId = null;
+        parentArtifactId = null;
+        parentVersion = null;
+        properties = new HashMap<>();
+
+        parser.setInput(new StringReader(pom));
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG) {
+            if (event == XmlPullParser.END_DOCUMENT)
+                throw new XmlPullParserException("Missing root element");
+            event = parser.next();
+        }
+        if (!"project".equals(parser.getName()))
+            throw new XmlPullParserException("Unrecognised root tag: " + parser.getName());
+
+        while ((event = parser.next()) != XmlPullParser.END_TAG) {
+            if (event != XmlPullParser.START_TAG)
+                continue;
+
+            switch (parser.getName()) {
+                case "groupId":
+                    groupId = text();
+                    break;
+                case "artifactId":
+                    artifactId = text();
+                    break;
+                case "version":
+                    version = text();
+                    break;
+                case "parent":
+                    readParent();
+                    break;
+                case "dependencies":
+                    readDependencies(dependencies, false);
+                    break;
+                case "dependencyManagement":
+                    readDependencyManagement();
+                    break;
+                case "properties":
+                    readProperties();
+                    break;
+                default:
+                    skip();
+            }
+        }
+
+        final List<DependencyFacts> all = new ArrayList<>(dependencies.size() + managedDependencies.size());
+        all.addAll(dependencies);
+        all.addAll(managedDependencies);
+        return new PomFacts(versionId, groupId, artifactId, version, all, parentGroupId, parentArtifactId,
+                parentVersion, properties);
+    }
+
+    private void readParent() throws IOException, XmlPullParserException {
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+
+            switch (parser.getName()) {
+                case "groupId":
+                    parentGroupId = text();
+                    break;
+                case "artifactId":
+                    parentArtifactId = text();
+                    break;
+                case "version":
+                    parentVersion = text();
+                    break;
+                default:
+                    skip();
+            }
+        }
+    }
+
+    private void readDependencyManagement() throws IOException, XmlPullParserException {
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+
+            if ("dependencies".equals(parser.getName()))
+                readDependencies(managedDependencies, true);
+            else
+                skip();
+        }
+    }
+
+    private void readDependencies(final List<DependencyFacts> target, final boolean managed)
+            throws IOException, XmlPullParserException {
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+
+            if ("dependency".equals(parser.getName()))
+                target.add(readDependency(managed));
+            else
+                skip();
+        }
+    }
+
+    private DependencyFacts readDependency(final boolean managed) throws IOException, XmlPullParserException {
+        String groupId = null;
+        String artifactId = null;
+        String version = null;
+        String scope = null;
+
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+
+            switch (parser.getName()) {
+                case "groupId":
+                    groupId = text();
+                    break;
+                case "artifactId":
+                    artifactId = text();
+                    break;
+                case "version":
+                    version = text();
+                    break;
+                case "scope":
+                    scope = text();
+                    break;
+                default:
+                    skip();
+            }
+        }
+
+        return new DependencyFacts(groupId, artifactId, version, scope, managed);
+    }
+
+    private void readProperties() throws IOException, XmlPullParserException {
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+
+            properties.put(parser.getName(), text());
+        }
+    }
+
+    private String text() throws IOException, XmlPullParserException {
+        return parser.nextText().trim();
+    }
+
+    private void skip() throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = parser.next();
+            if (event == XmlPullParser.START_TAG)
+                depth++;
+            else if (event == XmlPullParser.END_TAG)
+                depth--;
+        }
+    }
+}
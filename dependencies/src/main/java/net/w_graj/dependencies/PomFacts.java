@@ -0,0 +1,91 @@
+package net.w_graj.dependencies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+
+public class PomFacts {
+    public static final PomFacts END = new PomFacts(0, null, null, null, Collections.emptyList(), null, null, null,
+            Collections.emptyMap());
+
+    public final int versionId;
+    public final String groupId;
+    public final String artifactId;
+    public final String version;
+    public final List<DependencyFacts> dependencies;
+    public final String parentGroupId;
+    public final String parentArtifactId;
+    public final String parentVersion;
+    public final Map<String, String> properties;
+    public final boolean isReproducible;
+
+    public PomFacts(final int versionId, final String groupId, final String artifactId, final String version,
+            final List<DependencyFacts> dependencies, final String parentGroupId, final String parentArtifactId,
+            final String parentVersion, final Map<String, String> properties) {
+        this.versionId = versionId;
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.dependencies = dependencies;
+        this.parentGroupId = parentGroupId;
+        this.parentArtifactId = parentArtifactId;
+        this.parentVersion = parentVersion;
+        this.properties = properties;
+        this.isReproducible = properties.containsKey(PomExtractor.OUTPUT_TIMESTAMP);
+    }
+
+    public PomFacts withDependencies(final List<DependencyFacts> dependencies) {
+        return new PomFacts(versionId, groupId, artifactId, version, dependencies, parentGroupId, parentArtifactId,
+                parentVersion, properties);
+    }
+
+    public PomFacts unmask(final int versionId, final String mask, final String version) {
+        final List<DependencyFacts> unmasked = new ArrayList<>(dependencies.size());
+        for (final DependencyFacts dependency : dependencies)
+            unmasked.add(new DependencyFacts(unmask(dependency.groupId, mask, version),
+                    unmask(dependency.artifactId, mask, version), unmask(dependency.version, mask, version),
+                    unmask(dependency.scope, mask, version), dependency.managed));
+
+        final Map<String, String> unmaskedProperties = new HashMap<>(properties.size() * 2);
+        for (final Map.Entry<String, String> entry : properties.entrySet())
+            unmaskedProperties.put(entry.getKey(), unmask(entry.getValue(), mask, version));
+
+        return new PomFacts(versionId, unmask(groupId, mask, version), unmask(artifactId, mask, version),
+                unmask(this.version, mask, version), unmasked, unmask(parentGroupId, mask, version),
+                unmask(parentArtifactId, mask, version), unmask(parentVersion, mask, version), unmaskedProperties);
+    }
+
+    private static String unmask(final String value, final String mask, final String version) {
+        return (value != null && value.contains(mask)) ? value.replace(mask, version) : value;
+    }
+
+    public static PomFacts of(final int versionId, final Model pom) {
+        final List<DependencyFacts> dependencies = new ArrayList<>();
+        for (final Dependency dependency : pom.getDependencies())
+            dependencies.add(new DependencyFacts(dependency.getGroupId(), dependency.getArtifactId(),
+                    dependency.getVersion(), dependency.getScope(), false));
+
+        final DependencyManagement dependencyManagement = pom.getDependencyManagement();
+        if (dependencyManagement != null) {
+            for (final Dependency dependency : dependencyManagement.getDependencies())
+                dependencies.add(new DependencyFacts(dependency.getGroupId(), dependency.getArtifactId(),
+                        dependency.getVersion(), dependency.getScope(), true));
+        }
+
+        final Map<String, String> properties = new HashMap<>();
+        for (final String name : pom.getProperties().stringPropertyNames())
+            properties.put(name, pom.getProperties().getProperty(name).trim());
+
+        final Parent parent = pom.getParent();
+        return new PomFacts(versionId, pom.getGroupId(), pom.getArtifactId(), pom.getVersion(), dependencies,
+                (parent != null) ? parent.getGroupId() : null, (parent != null) ? parent.getArtifactId() : null,
+                (parent != null) ? parent.getVersion() : null, properties);
+    }
+}
@@ -0,0 +1,72 @@
+package net.w_graj.dependencies;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PomExtractorBenchmark {
+    private static final String SAMPLE_DIR = "/poms/";
+
+    private final List<String> poms = new ArrayList<>();
+    private final PomExtractor extractor = new PomExtractor();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        for (final String name : resource("index.txt").split("\n"))
+            if (!name.trim().isEmpty())
+                poms.add(resource(name.trim()));
+        if (poms.isEmpty())
+            throw new IllegalStateException("No POM samples");
+    }
+
+    private static String resource(final String name) throws IOException {
+        try (
+                final InputStream in = PomExtractorBenchmark.class.getResourceAsStream(SAMPLE_DIR + name);
+                final BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(in, StandardCharsets.UTF_8));) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    @Benchmark
+    public void mavenXpp3Reader(final Blackhole bh) throws IOException, XmlPullParserException {
+        bh.consume(extractor.read(0, nextPom()));
+    }
+
+    @Benchmark
+    public void pomExtractor(final Blackhole bh) throws IOException, XmlPullParserException {
+        bh.consume(extractor.extract(0, nextPom()));
+    }
+
+    private String nextPom() {
+        final String pom = poms.get(next);
+        next = (next + 1) % poms.size();
+        return pom;
+    }
+}
@@ -1,22 +1,44 @@
 package net.w_graj.detect;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import nl.cwts.networkanalysis.Clustering;
 import nl.cwts.networkanalysis.ClusteringAlgorithm;
 import nl.cwts.networkanalysis.ComponentsAlgorithm;
+import nl.cwts.networkanalysis.IterativeCPMClusteringAlgorithm;
 import nl.cwts.networkanalysis.LeidenAlgorithm;
 import nl.cwts.networkanalysis.LouvainAlgorithm;
 import nl.cwts.networkanalysis.Network;
@@ -30,6 +52,18 @@ public class Detect {
     private static final String DB_PASS = "";
 
     private static final int FETCH_SIZE = 4096;
+    private static final boolean SUCCESSIVE_HALVING = true;
+    private static final int HALVING_RATE = 3;
+    private static final int REFINEMENT_ROUNDS = 4;
+    private static final double REFINEMENT_ALPHA_STEP = 0.1;
+    private static final double REFINEMENT_RESOLUTION_STEP = 0.5;
+    private static final boolean WARM_START_SWEEP = true;
+    private static final double QUALITY_EPSILON = 1e-6;
+    private static final String SNAPSHOT_PATH = "detect-corpus.bin";
+    private static final boolean REBUILD_SNAPSHOT = false;
+    private static final String RESULTS_PATH = null;
+    private static final int SNAPSHOT_MAGIC = 0x44434f52;
+    private static final int SNAPSHOT_VERSION = 1;
 
     private static final String SELECT_NODES_SQL = "SELECT"
             + "\n    id,"
@@ -134,20 +168,27 @@ public class Detect {
     }
 
     private static class TestGroup {
+        public final String rootGroupId;
+        public final List<String> familyGroupIds;
         public final int nNodes;
-        public final List<List<Integer>> families;
+        public final int[][] families;
         public final LargeIntArray[] edges;
         public final LargeBooleanArray edgeParents;
         public final LargeDoubleArray edgeCoeffs;
+        private final Map<Double, Network> networks = new ConcurrentHashMap<>();
+        private final AtomicLong iterations = new AtomicLong();
+        private final AtomicLong maxIterations = new AtomicLong();
 
         public TestGroup(final PreparedStatement selectEdges, final PreparedStatement selectNodes,
                 final String rootGroupId,
                 final List<String> familyGroupIds) throws SQLException {
+            this.rootGroupId = rootGroupId;
+            this.familyGroupIds = familyGroupIds;
             selectEdges.setString(1, rootGroupId);
             // selectEdges.setString(2, rootGroupId);
             selectNodes.setString(1, rootGroupId);
             final Map<Integer, Integer> nodes = new HashMap<>();
-            this.families = IntStream.range(0, familyGroupIds.size())
+            final List<List<Integer>> families = IntStream.range(0, familyGroupIds.size())
                     .mapToObj(i -> new ArrayList<Integer>())
                     .collect(Collectors.toList());
 
@@ -159,10 +200,11 @@ public class Detect {
                 nodes.put(id, i);
                 for (int j = 0; j < familyGroupIds.size(); j++)
                     if (groupId.startsWith(familyGroupIds.get(j)))
-                        this.families.get(j).add(i);
+                        families.get(j).add(i);
                 i++;
             }
             nNodes = nodes.size();
+            this.families = toArrays(families);
             edges = new LargeIntArray[2];
             edges[0] = new LargeIntArray(0);
             edges[1] = new LargeIntArray(0);
@@ -178,7 +220,71 @@ public class Detect {
             }
         }
 
-        public double[] test(ClusteringAlgorithm algo, double alpha, List<ExternalEvaluation> eval) {
+        public TestGroup(final String rootGroupId, final List<String> familyGroupIds, final int nNodes,
+                final int[][] families, final LargeIntArray[] edges, final LargeBooleanArray edgeParents,
+                final LargeDoubleArray edgeCoeffs) {
+            this.rootGroupId = rootGroupId;
+            this.familyGroupIds = familyGroupIds;
+            this.nNodes = nNodes;
+            this.families = families;
+            this.edges = edges;
+            this.edgeParents = edgeParents;
+            this.edgeCoeffs = edgeCoeffs;
+        }
+
+        public static TestGroup read(final ByteBuffer buf) {
+            final String rootGroupId = readString(buf);
+            final int nFamilies = buf.getInt();
+            final List<String> familyGroupIds = new ArrayList<>();
+            final List<int[]> families = new ArrayList<>();
+            for (int i = 0; i < nFamilies; i++) {
+                familyGroupIds.add(readString(buf));
+                families.add(readInts(buf, buf.getInt()));
+            }
+
+            final int nNodes = buf.getInt();
+            final int nEdges = buf.getInt();
+            final LargeIntArray[] edges = new LargeIntArray[] { new LargeIntArray(readInts(buf, nEdges)),
+                    new LargeIntArray(readInts(buf, nEdges)) };
+            final boolean[] parents = new boolean[nEdges];
+            for (int i = 0; i < nEdges; i++)
+                parents[i] = buf.get() != 0;
+            final double[] coeffs = new double[nEdges];
+            buf.asDoubleBuffer().get(coeffs);
+            buf.position(buf.position() + nEdges * Double.BYTES);
+
+            return new TestGroup(rootGroupId, familyGroupIds, nNodes, families.toArray(new int[0][]), edges,
+                    new LargeBooleanArray(parents), new LargeDoubleArray(coeffs));
+        }
+
+        public void write(final DataOutputStream out) throws IOException {
+            writeString(out, this.rootGroupId);
+            out.writeInt(this.families.length);
+            for (int i = 0; i < this.families.length; i++) {
+                writeString(out, this.familyGroupIds.get(i));
+                out.writeInt(this.families[i].length);
+                for (final int node : this.families[i])
+                    out.writeInt(node);
+            }
+
+            final int nEdges = Math.toIntExact(this.edgeParents.size());
+            out.writeInt(this.nNodes);
+            out.writeInt(nEdges);
+            for (int i = 0; i < nEdges; i++)
+                out.writeInt(this.edges[0].get(i));
+            for (int i = 0; i < nEdges; i++)
+                out.writeInt(this.edges[1].get(i));
+            for (int i = 0; i < nEdges; i++)
+                out.writeByte(this.edgeParents.get(i) ? 1 : 0);
+            for (int i = 0; i < nEdges; i++)
+                out.writeDouble(this.edgeCoeffs.get(i));
+        }
+
+        public Network network(final double alpha) {
+            return networks.computeIfAbsent(alpha, this::buildNetwork);
+        }
+
+        private Network buildNetwork(final double alpha) {
             final LargeDoubleArray edgeWeights = new LargeDoubleArray(0);
             final LargeIntArray[] edges = new LargeIntArray[2];
             edges[0] = new LargeIntArray(0);
@@ -194,40 +300,74 @@ public class Detect {
                 edgeWeights.append(weight);
             }
 
-            final double[] score = new double[eval.size()];
+            return new Network(this.nNodes, false, edges, edgeWeights, false, false);
+        }
 
-            if (edgeWeights.size() == 0) {
-                for (int i = 0; i < eval.size(); i++) {
-                    for (final List<Integer> family : this.families) {
-                        final int tp = 1;
-                        final int fp = 0;
-                        final int fn = family.size() - tp;
-                        score[i] += eval.get(i).eval(tp, fp, fn);
-                    }
+        public double[] test(ClusteringAlgorithm algo, double alpha, List<ExternalEvaluation> eval) {
+            final Network network = network(alpha);
+            if (network.getNEdges() == 0)
+                return singletonScore(eval);
+
+            return score(algo.findClustering(network), eval);
+        }
+
+        public double[][] sweep(final List<AlgorithmConfig> configs, final List<ExternalEvaluation> eval,
+                final int divisor) {
+            final Network network = network(configs.get(0).alpha);
+            final double[][] scores = new double[configs.size()][];
+            Clustering clustering = new Clustering(this.nNodes);
+
+            for (int k = 0; k < configs.size(); k++) {
+                if (network.getNEdges() == 0) {
+                    scores[k] = singletonScore(eval);
+                    continue;
                 }
-                return score;
+
+                final IterativeCPMClusteringAlgorithm algo = configs.get(k).iterative(divisor);
+                clustering = clustering.clone();
+                this.iterations.addAndGet(converge(algo, network, clustering));
+                this.maxIterations.addAndGet(algo.getNIterations());
+                scores[k] = score(clustering, eval);
             }
 
-            final Network network = new Network(this.nNodes, false, edges, edgeWeights, false, false);
+            return scores;
+        }
 
-            final Clustering clustering = algo.findClustering(network);
+        public void printIterations() {
+            final long used = this.iterations.get();
+            final long max = this.maxIterations.get();
+            System.err.printf("%s: %d of %d iterations (%.1f%% saved)\n", this.rootGroupId, used, max,
+                    (max > 0) ? 100.0 * (max - used) / max : 0.0);
+        }
 
-            for (int i = 0; i < eval.size(); i++) {
-                for (final List<Integer> family : this.families) {
-                    final Map<Integer, Integer> frequencyMap = new HashMap<>();
-                    for (final Integer node : family) {
-                        final int element = clustering.getCluster(node);
-                        frequencyMap.put(element, frequencyMap.getOrDefault(element, 0) + 1);
-                    }
+        private double[] singletonScore(final List<ExternalEvaluation> eval) {
+            final double[] score = new double[eval.size()];
+            for (final int[] family : this.families)
+                addScores(score, eval, 1, 0, family.length - 1);
+            return score;
+        }
 
-                    Map.Entry<Integer, Integer> x = Collections.max(frequencyMap.entrySet(),
-                            Map.Entry.comparingByValue());
-                    final int mode = x.getKey();
-                    final int tp = x.getValue();
-                    final int fp = clustering.getNNodesPerCluster()[mode] - tp;
-                    final int fn = family.size() - tp;
-                    score[i] += eval.get(i).eval(tp, fp, fn);
+        private double[] score(final Clustering clustering, final List<ExternalEvaluation> eval) {
+            final int[] clusters = clustering.getClusters();
+            final int[] nNodesPerCluster = clustering.getNNodesPerCluster();
+            final int[] counts = new int[clustering.getNClusters()];
+            final double[] score = new double[eval.size()];
+
+            for (final int[] family : this.families) {
+                int mode = -1;
+                int tp = 0;
+                for (final int node : family) {
+                    final int cluster = clusters[node];
+                    final int count = ++counts[cluster];
+                    if (count > tp || (count == tp && cluster < mode)) {
+                        mode = cluster;
+                        tp = count;
+                    }
                 }
+                for (final int node : family)
+                    counts[clusters[node]] = 0;
+
+                addScores(score, eval, tp, nNodesPerCluster[mode] - tp, family.length - tp);
             }
 
             return score;
@@ -245,6 +385,51 @@ public class Detect {
                 this.tests.add(new TestGroup(selectEdges, selectNodes, rootGroupIds.get(i), familyGroupIds.get(i)));
         }
 
+        public TestCorpus(final List<TestGroup> tests) {
+            this.tests = tests;
+        }
+
+        public static TestCorpus read(final Path path) throws IOException {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);) {
+                final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buf.getInt() != SNAPSHOT_MAGIC || buf.getInt() != SNAPSHOT_VERSION)
+                    return null;
+
+                final int nTests = buf.getInt();
+                final List<TestGroup> tests = new ArrayList<>();
+                for (int i = 0; i < nTests; i++)
+                    tests.add(TestGroup.read(buf));
+                return buf.hasRemaining() ? null : new TestCorpus(tests);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                System.err.println(e);
+                return null;
+            }
+        }
+
+        public void write(final Path path) throws IOException {
+            final Path tmp = Paths.get(path + ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)));) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(this.tests.size());
+                for (final TestGroup test : this.tests)
+                    test.write(out);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        public boolean matches(final List<String> rootGroupIds, final List<List<String>> familyGroupIds) {
+            if (this.tests.size() != rootGroupIds.size())
+                return false;
+            for (int i = 0; i < this.tests.size(); i++) {
+                final TestGroup test = this.tests.get(i);
+                if (!test.rootGroupId.equals(rootGroupIds.get(i)) || !test.familyGroupIds.equals(familyGroupIds.get(i)))
+                    return false;
+            }
+            return true;
+        }
+
         public double[] test(final ClusteringAlgorithm algo, final double alpha, final List<ExternalEvaluation> eval) {
             final double[] scores = new double[eval.size()];
             int count = 0;
@@ -253,7 +438,7 @@ public class Detect {
                 final double[] testScore = test.test(algo, alpha, eval);
                 for (int i = 0; i < testScore.length; i++)
                     scores[i] += testScore[i];
-                count += test.families.size();
+                count += test.families.length;
             }
 
             for (int i = 0; i < scores.length; i++)
@@ -261,6 +446,34 @@ public class Detect {
 
             return scores;
         }
+
+        public List<Result> sweep(final List<AlgorithmConfig> configs, final List<ExternalEvaluation> eval,
+                final int divisor) {
+            final double[][] scores = new double[configs.size()][eval.size()];
+            int count = 0;
+
+            for (final TestGroup test : this.tests) {
+                final double[][] testScores = test.sweep(configs, eval, divisor);
+                for (int k = 0; k < testScores.length; k++)
+                    for (int i = 0; i < testScores[k].length; i++)
+                        scores[k][i] += testScores[k][i];
+                count += test.families.length;
+            }
+
+            final List<Result> results = new ArrayList<>();
+            for (int k = 0; k < configs.size(); k++) {
+                for (int i = 0; i < scores[k].length; i++)
+                    scores[k][i] /= count;
+                results.add(new Result(configs.get(k), scores[k]));
+            }
+
+            return results;
+        }
+
+        public void printIterations() {
+            for (final TestGroup test : this.tests)
+                test.printIterations();
+        }
     }
 
     public static class AlgorithmConfig {
@@ -275,6 +488,48 @@ public class Detect {
             this.alpha = alpha;
         }
 
+        public AlgorithmConfig withBudget(final int divisor) {
+            if (divisor <= 1 || !parameters.containsKey("nIterations"))
+                return this;
+            final Map<String, Object> params = new HashMap<>(parameters);
+            params.put("nIterations", Math.max(1, (Integer) parameters.get("nIterations") / divisor));
+            return with(params, alpha);
+        }
+
+        public IterativeCPMClusteringAlgorithm iterative(final int divisor) {
+            final Map<String, Object> params = new HashMap<>(parameters);
+            params.put("nIterations", Math.max(1, (Integer) parameters.get("nIterations") / divisor));
+            return (IterativeCPMClusteringAlgorithm) with(params, alpha).algorithm;
+        }
+
+        public AlgorithmConfig withNeighbour(final double alpha, final double resolution) {
+            final Map<String, Object> params = new HashMap<>(parameters);
+            if (params.containsKey("resolution"))
+                params.put("resolution", resolution);
+            return with(params, alpha);
+        }
+
+        private AlgorithmConfig with(final Map<String, Object> params, final double alpha) {
+            if (algorithm instanceof LeidenAlgorithm)
+                return new AlgorithmConfig(params, new LeidenAlgorithm((Double) params.get("resolution"),
+                        (Integer) params.get("nIterations"), (Double) params.get("randomness"), new Random(0)),
+                        alpha);
+            if (algorithm instanceof LouvainAlgorithm)
+                return new AlgorithmConfig(params, new LouvainAlgorithm((Double) params.get("resolution"),
+                        (Integer) params.get("nIterations"), new Random(0)), alpha);
+            return new AlgorithmConfig(params, algorithm, alpha);
+        }
+
+        public String sweepKey() {
+            final Map<String, Object> params = new TreeMap<>(parameters);
+            params.remove("resolution");
+            return String.format("%s%s,alpha(%f)", algorithm.getClass().getSimpleName(), params, alpha);
+        }
+
+        public double resolution() {
+            return parameters.containsKey("resolution") ? (Double) parameters.get("resolution") : 0.0;
+        }
+
         @Override
         public String toString() {
             return String.format("%s%s,alpha(%f)",
@@ -282,36 +537,67 @@ public class Detect {
         }
     }
 
-    public static List<AlgorithmConfig> createGridSearchAlgorithms() {
-        final List<AlgorithmConfig> result = new ArrayList<>();
+    private static class Result {
+        public final AlgorithmConfig config;
+        public final double[] scores;
 
-        final List<Double> resolutions;
-        final List<Double> alphas;
+        public Result(final AlgorithmConfig config, final double[] scores) {
+            this.config = config;
+            this.scores = scores;
+        }
 
-        if (false) {
-            resolutions = IntStream.range(1, 30)
-                    .mapToObj(i -> 0.01 * i)
-                    .collect(Collectors.toList());
-            alphas = IntStream.range(0, 10)
-                    .mapToObj(i -> 0.1 * i)
-                    .collect(Collectors.toList());
-            result.add(new AlgorithmConfig(new HashMap<>(), new ComponentsAlgorithm(), 1.0));
-        } else if (false) {
-            resolutions = IntStream.range(1, 15)
-                    .mapToObj(i -> 0.001 * i)
-                    .collect(Collectors.toList());
-            alphas = IntStream.range(4, 10)
-                    .mapToObj(i -> 0.1 * i)
-                    .collect(Collectors.toList());
-        } else {
-            resolutions = IntStream.range(2, 8)
-                    .mapToObj(i -> 0.001 * i)
-                    .collect(Collectors.toList());
-            alphas = IntStream.range(85, 98)
-                    .mapToObj(i -> 0.01 * i)
-                    .collect(Collectors.toList());
+        public static int compare(final Result a, final Result b) {
+            final int jaccard = Double.compare(b.scores[0], a.scores[0]);
+            return (jaccard != 0) ? jaccard : Double.compare(b.scores[1], a.scores[1]);
+        }
+    }
+
+    private static class ResultWriter implements Closeable {
+        private final BufferedWriter writer;
+
+        public ResultWriter(final BufferedWriter writer) throws IOException {
+            this.writer = writer;
+            writer.write("algorithm,resolution,n_iterations,randomness,alpha,jaccard,dice,fowlkes_mallows,fdr,fnr\n");
+        }
+
+        public void write(final List<Result> results) throws IOException {
+            for (final Result result : results) {
+                final AlgorithmConfig config = result.config;
+                writer.write(String.format(Locale.ROOT, "%s,%s,%s,%s,%f,%f,%f,%f,%f,%f\n",
+                        config.algorithm.getClass().getSimpleName(), column(config, "resolution"),
+                        column(config, "nIterations"), column(config, "randomness"), config.alpha,
+                        result.scores[0], result.scores[1], result.scores[2], result.scores[3], result.scores[4]));
+            }
+            writer.flush();
         }
 
+        private static String column(final AlgorithmConfig config, final String name) {
+            final Object value = config.parameters.get(name);
+            if (value == null)
+                return "";
+            return (value instanceof Double) ? String.format(Locale.ROOT, "%f", value) : value.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    public static List<AlgorithmConfig> createGridSearchAlgorithms() {
+        final List<AlgorithmConfig> result = new ArrayList<>();
+
+        final List<Double> resolutions = IntStream.range(1, 10)
+                .mapToObj(i -> 0.001 * i)
+                .collect(Collectors.toList());
+        resolutions.addAll(IntStream.range(1, 30)
+                .mapToObj(i -> 0.01 * i)
+                .collect(Collectors.toList()));
+        final List<Double> alphas = IntStream.range(0, 11)
+                .mapToObj(i -> 0.1 * i)
+                .collect(Collectors.toList());
+        result.add(new AlgorithmConfig(new HashMap<>(), new ComponentsAlgorithm(), 1.0));
+
         final int[] nIterationsValues = { 70 };
         final double[] randomnessValues = { 0.1 };
 
@@ -346,7 +632,163 @@ public class Detect {
         return result;
     }
 
-    public static void main(final String[] args) throws Exception {
+    private static List<Result> evaluate(final TestCorpus tests, final List<AlgorithmConfig> algos,
+            final List<ExternalEvaluation> eval, final int divisor, final boolean warmStart) {
+        final List<AlgorithmConfig> single = new ArrayList<>();
+        final Map<String, List<AlgorithmConfig>> sweeps = new LinkedHashMap<>();
+        for (final AlgorithmConfig algo : algos) {
+            if (warmStart && algo.algorithm instanceof IterativeCPMClusteringAlgorithm)
+                sweeps.computeIfAbsent(algo.sweepKey(), k -> new ArrayList<>()).add(algo);
+            else
+                single.add(algo);
+        }
+        for (final List<AlgorithmConfig> sweep : sweeps.values())
+            sweep.sort(Comparator.comparingDouble(AlgorithmConfig::resolution));
+
+        final Map<AlgorithmConfig, Result> results = new IdentityHashMap<>();
+        single.parallelStream()
+                .map(algo -> new Result(algo, tests.test(algo.withBudget(divisor).algorithm, algo.alpha, eval)))
+                .collect(Collectors.toList())
+                .forEach(result -> results.put(result.config, result));
+        sweeps.values().parallelStream()
+                .flatMap(sweep -> tests.sweep(sweep, eval, divisor).stream())
+                .collect(Collectors.toList())
+                .forEach(result -> results.put(result.config, result));
+
+        return algos.stream()
+                .map(results::get)
+                .collect(Collectors.toList());
+    }
+
+    private static int converge(final IterativeCPMClusteringAlgorithm algo, final Network network,
+            final Clustering clustering) {
+        final int maxIterations = algo.getNIterations();
+        algo.setNIterations(1);
+        double quality = algo.calcQuality(network, clustering);
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            final boolean changed = algo.improveClustering(network, clustering);
+            iterations++;
+            final double improved = algo.calcQuality(network, clustering);
+            if (!changed || improved - quality < QUALITY_EPSILON * Math.max(1.0, Math.abs(improved)))
+                break;
+            quality = improved;
+        }
+        algo.setNIterations(maxIterations);
+        return iterations;
+    }
+
+    private static Result successiveHalving(final TestCorpus tests, final List<AlgorithmConfig> algos,
+            final List<ExternalEvaluation> eval, final ResultWriter out) throws IOException {
+        int rounds = 0;
+        for (int n = algos.size(); n > HALVING_RATE; n = (n + HALVING_RATE - 1) / HALVING_RATE)
+            rounds++;
+
+        List<AlgorithmConfig> survivors = algos;
+        for (int round = 0;; round++) {
+            int divisor = 1;
+            for (int i = round; i < rounds; i++)
+                divisor *= HALVING_RATE;
+            System.err.printf("round %d: %d configs at 1/%d of the iterations\n", round, survivors.size(), divisor);
+
+            final List<Result> results = evaluate(tests, survivors, eval, divisor, false);
+            results.sort(Result::compare);
+            if (round == rounds) {
+                out.write(results);
+                return results.get(0);
+            }
+
+            survivors = results.subList(0, (results.size() + HALVING_RATE - 1) / HALVING_RATE).stream()
+                    .map(result -> result.config)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Result refine(final TestCorpus tests, final Result start, final List<ExternalEvaluation> eval,
+            final ResultWriter out) throws IOException {
+        Result best = start;
+        double alphaStep = REFINEMENT_ALPHA_STEP;
+        double resolutionStep = REFINEMENT_RESOLUTION_STEP;
+
+        for (int round = 0; round < REFINEMENT_ROUNDS; round++) {
+            alphaStep /= 2;
+            resolutionStep /= 2;
+            final AlgorithmConfig center = best.config;
+            final boolean hasResolution = center.parameters.containsKey("resolution");
+            final double resolution = hasResolution ? (Double) center.parameters.get("resolution") : 0.0;
+
+            final List<AlgorithmConfig> neighbours = new ArrayList<>();
+            for (int i = -1; i <= 1; i++) {
+                for (int j = -1; j <= 1; j++) {
+                    final double alpha = center.alpha + i * alphaStep;
+                    final double neighbourResolution = resolution * (1.0 + j * resolutionStep);
+                    if ((i == 0 && j == 0) || alpha < 0.0 || alpha > 1.0)
+                        continue;
+                    if (j != 0 && (!hasResolution || neighbourResolution <= 0.0))
+                        continue;
+                    neighbours.add(center.withNeighbour(alpha, neighbourResolution));
+                }
+            }
+            System.err.printf("refinement %d: %d configs around %s\n", round, neighbours.size(), center);
+
+            final List<Result> results = evaluate(tests, neighbours, eval, 1, false);
+            out.write(results);
+            for (final Result result : results)
+                if (Result.compare(result, best) < 0)
+                    best = result;
+        }
+
+        return best;
+    }
+
+    private static int[][] toArrays(final List<List<Integer>> lists) {
+        return lists.stream()
+                .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+    }
+
+    private static void addScores(final double[] score, final List<ExternalEvaluation> eval, final int tp,
+            final int fp, final int fn) {
+        for (int i = 0; i < eval.size(); i++)
+            score[i] += eval.get(i).eval(tp, fp, fn);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final int n = buf.getInt();
+        if (n > buf.remaining())
+            throw new BufferUnderflowException();
+        final byte[] bytes = new byte[n];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int[] readInts(final ByteBuffer buf, final int n) {
+        if (n > buf.remaining() / Integer.BYTES)
+            throw new BufferUnderflowException();
+        final int[] values = new int[n];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + n * Integer.BYTES);
+        return values;
+    }
+
+    private static TestCorpus loadTestCorpus() throws SQLException, IOException {
+        final Path snapshot = Paths.get(SNAPSHOT_PATH);
+        if (!REBUILD_SNAPSHOT && Files.exists(snapshot)) {
+            final TestCorpus tests = TestCorpus.read(snapshot);
+            if (tests != null && tests.matches(testGroupIds, testFamilies)) {
+                System.err.printf("loaded test corpus from %s\n", snapshot);
+                return tests;
+            }
+            System.err.printf("snapshot %s is stale, rebuilding\n", snapshot);
+        }
+
+        final TestCorpus tests;
         try (
                 final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
                 final PreparedStatement selectEdges = conn.prepareStatement(SELECT_EDGES_SQL,
@@ -356,21 +798,36 @@ public class Detect {
             selectEdges.setFetchSize(FETCH_SIZE);
             selectNodes.setFetchSize(FETCH_SIZE);
 
-            final TestCorpus tests = new TestCorpus(selectEdges, selectNodes, testGroupIds, testFamilies);
+            tests = new TestCorpus(selectEdges, selectNodes, testGroupIds, testFamilies);
             System.err.println("loaded test corpus");
+        }
 
-            final List<AlgorithmConfig> algos = createGridSearchAlgorithms();
-            System.err.printf("grid searching over %d permutations\n", algos.size());
-
-            final List<ExternalEvaluation> eval = List.of(new Jaccard(), new Dice(), new FowlkesMallows(),
-                    new FalseDiscoveryRate(), new FalseNegativeRate());
-            System.out.println("algo,jaccard,dice,fowlkes_mallows,fdr,fnr");
+        tests.write(snapshot);
+        System.err.printf("wrote snapshot %s\n", snapshot);
+        return tests;
+    }
 
-            algos.parallelStream().forEach(algo -> {
-                final double[] results = tests.test(algo.algorithm, algo.alpha, eval);
-                System.out.printf("\"%s\",%f,%f,%f,%f,%f\n", algo, results[0], results[1],
-                        results[2], results[3], results[4]);
-            });
+    public static void main(final String[] args) throws Exception {
+        final TestCorpus tests = loadTestCorpus();
+
+        final List<AlgorithmConfig> algos = createGridSearchAlgorithms();
+        System.err.printf("grid searching over %d permutations\n", algos.size());
+
+        final List<ExternalEvaluation> eval = List.of(new Jaccard(), new Dice(), new FowlkesMallows(),
+                new FalseDiscoveryRate(), new FalseNegativeRate());
+
+        try (final ResultWriter out = new ResultWriter((RESULTS_PATH != null)
+                ? Files.newBufferedWriter(Paths.get(RESULTS_PATH), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));) {
+            if (SUCCESSIVE_HALVING) {
+                final Result best = refine(tests, successiveHalving(tests, algos, eval, out), eval, out);
+                System.err.printf("best %s\n", best.config);
+            } else {
+                out.write(evaluate(tests, algos, eval, 1, WARM_START_SWEEP));
+            }
         }
+
+        if (WARM_START_SWEEP && !SUCCESSIVE_HALVING)
+            tests.printIterations();
     }
 }
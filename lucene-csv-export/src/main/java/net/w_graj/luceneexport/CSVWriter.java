@@ -0,0 +1,245 @@
+package net.w_graj.luceneexport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+public class CSVWriter implements Closeable {
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final int flushThreshold;
+    private ByteBuffer bytes;
+    private char[] chars;
+    private CharBuffer charBuffer;
+    private int pos = 0;
+    private boolean rowStart = true;
+
+    public CSVWriter(final WritableByteChannel channel, final int bufferSize) {
+        this.channel = channel;
+        this.flushThreshold = bufferSize;
+        this.chars = new char[bufferSize];
+        this.charBuffer = CharBuffer.wrap(this.chars);
+        this.bytes = ByteBuffer.allocate(bufferSize * 3);
+    }
+
+    public void field(final String value) throws IOException {
+        if (value == null)
+            nullField();
+        else
+            escaped(value, 0, value.length(), false);
+    }
+
+    public void text(final String value) throws IOException {
+        if (value == null)
+            nullField();
+        else
+            escaped(value, 0, value.length(), true);
+    }
+
+    public void text(final String value, final int start, final int end) throws IOException {
+        escaped(value, start, end, true);
+    }
+
+    public void nullField() throws IOException {
+        separator(0);
+    }
+
+    public void number(final long value) throws IOException {
+        separator(20);
+        if (value < 0) {
+            chars[pos++] = '-';
+            if (value == Long.MIN_VALUE) {
+                final String s = Long.toString(value);
+                s.getChars(1, s.length(), chars, pos);
+                pos += s.length() - 1;
+                return;
+            }
+        }
+        long v = Math.abs(value);
+        final int len = digits(v);
+        for (int i = pos + len - 1; i >= pos; i--) {
+            chars[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        pos += len;
+    }
+
+    public void timestamp(final long millis) throws IOException {
+        separator(32);
+        final long days = Math.floorDiv(millis, 86400000L);
+        final int ms = (int) Math.floorMod(millis, 86400000L);
+
+        final long z = days + 719468;
+        final long era = Math.floorDiv(z, 146097);
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999)
+            return;
+        pad((int) year, 4);
+        chars[pos++] = '-';
+        pad(month, 2);
+        chars[pos++] = '-';
+        pad(day, 2);
+        chars[pos++] = ' ';
+        pad(ms / 3600000, 2);
+        chars[pos++] = ':';
+        pad(ms / 60000 % 60, 2);
+        chars[pos++] = ':';
+        pad(ms / 1000 % 60, 2);
+        chars[pos++] = '.';
+        pad(ms % 1000, 3);
+        chars[pos++] = '+';
+        chars[pos++] = '0';
+        chars[pos++] = '0';
+    }
+
+    public void endRow() throws IOException {
+        reserve(1);
+        chars[pos++] = '\n';
+        rowStart = true;
+        if (pos >= flushThreshold)
+            flush();
+    }
+
+    public void flush() throws IOException {
+        if (bytes.capacity() < pos * 3)
+            bytes = ByteBuffer.allocate(pos * 3);
+        charBuffer.position(0).limit(pos);
+        while (true) {
+            final CoderResult result = encoder.encode(charBuffer, bytes, false);
+            if (result.isError())
+                result.throwException();
+            drain();
+            if (result.isUnderflow())
+                break;
+        }
+        final int remaining = charBuffer.remaining();
+        System.arraycopy(chars, charBuffer.position(), chars, 0, remaining);
+        pos = remaining;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            charBuffer.position(0).limit(pos);
+            encoder.encode(charBuffer, bytes, true);
+            encoder.flush(bytes);
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void escaped(final String value, final int start, final int end, final boolean quoteEmpty)
+            throws IOException {
+        separator(2 * (end - start) + 2);
+        final char[] c = chars;
+        int p = pos;
+        if (start == end) {
+            if (quoteEmpty) {
+                c[p++] = '"';
+                c[p++] = '"';
+            }
+            pos = p;
+            return;
+        }
+        final int len = end - start;
+        value.getChars(start, end, c, p);
+        final int e = p + len;
+        int k = p;
+        while (k < e && !isSpecial(c[k]))
+            k++;
+        if (k == e) {
+            pos = e;
+            return;
+        }
+
+        int quotes = 0;
+        for (int i = k; i < e; i++)
+            if (c[i] == '"')
+                quotes++;
+        final int close = e + 1 + quotes;
+        c[close] = '"';
+        int w = close - 1;
+        for (int r = e - 1; r >= k; r--) {
+            final char ch = c[r];
+            c[w--] = ch;
+            if (ch == '"')
+                c[w--] = '"';
+        }
+        System.arraycopy(c, p, c, p + 1, k - p);
+        c[p] = '"';
+        pos = close + 1;
+    }
+
+    private static boolean isSpecial(final char ch) {
+        return ch == '"' || ch == ',' || ch == '\n' || ch == '\r';
+    }
+
+    private void separator(final int len) throws IOException {
+        reserve(len + 1);
+        if (!rowStart)
+            chars[pos++] = ',';
+        rowStart = false;
+    }
+
+    private void reserve(final int len) {
+        if (chars.length - pos >= len)
+            return;
+        final char[] grown = new char[Math.max(chars.length * 2, pos + len)];
+        System.arraycopy(chars, 0, grown, 0, pos);
+        chars = grown;
+        charBuffer = CharBuffer.wrap(chars);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
+
+    private void pad(int value, final int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        pos += width;
+    }
+
+    private static int digits(final long value) {
+        int len = 1;
+        for (long v = value; v >= 10; v /= 10)
+            len++;
+        return len;
+    }
+
+    public static long parseLong(final String value, final int start, final int end) {
+        if (start == end || end - start > 18)
+            return Long.MIN_VALUE;
+        long result = 0;
+        int i = start;
+        final boolean negative = value.charAt(i) == '-';
+        if (negative && ++i == end)
+            return Long.MIN_VALUE;
+        for (; i < end; i++) {
+            final char ch = value.charAt(i);
+            if (ch < '0' || ch > '9')
+                return Long.MIN_VALUE;
+            result = result * 10 + (ch - '0');
+        }
+        return negative ? -result : result;
+    }
+}
@@ -1,79 +1,461 @@
 package net.w_graj.luceneexport;
 
 import org.apache.lucene.index.*;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Bits;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LuceneToCSV {
+    private static final String DB_URL = "jdbc:postgresql:cse3000";
+    private static final String DB_USER = "wojtek";
+    private static final String DB_PASS = "";
+
+    private static final String COPY_IMPORTED_SQL = "COPY imported FROM STDIN (FORMAT csv)";
+
+    private static final int CSV_BUFFER_SIZE = 1 << 20;
+    private static final int COPY_QUEUE_SIZE = 16;
+
+    private static final List<String> PROJECTED_FIELDS = List.of("u", "i", "m", "1", "Bundle-SymbolicName",
+            "Bundle-Version", "Export-Package", "Bundle-Name", "Bundle-Description", "Bundle-DocURL", "Import-Package",
+            "Bundle-License", "Require-Bundle", "Export-Service");
+    private static final int U_FIELD = 0;
+    private static final int I_FIELD = 1;
+    private static final int M_FIELD = 2;
+
+    private static final long FULL_EXPORT = -1;
+
     public static void main(final String[] args) throws Exception {
-        if (args.length != 2)
+        final List<String> paths = new ArrayList<>();
+        int nThreads = 1;
+        boolean keepShards = false;
+        boolean copyToDb = false;
+        boolean project = false;
+        String watermarkPath = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length)
+                nThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--shards"))
+                keepShards = true;
+            else if (args[i].equals("--copy-to-db"))
+                copyToDb = true;
+            else if (args[i].equals("--project"))
+                project = true;
+            else if (args[i].equals("--since") && i + 1 < args.length)
+                watermarkPath = args[++i];
+            else
+                paths.add(args[i]);
+        }
+
+        if (paths.size() != (copyToDb ? 1 : 2) || (copyToDb && watermarkPath != null))
             System.exit(1);
 
-        final String indexPath = args[0];
-        final String csvPath = args[1];
+        final String indexPath = paths.get(0);
+
+        if (copyToDb) {
+            final long rows = copyLuceneToDB(indexPath, nThreads, project);
+            System.out.println("Copy complete: " + rows + " rows");
+            return;
+        }
+
+        final String csvPath = paths.get(1);
 
-        exportLuceneToCSV(indexPath, csvPath);
+        if (watermarkPath == null) {
+            exportLuceneToCSV(indexPath, csvPath, nThreads, keepShards, project, FULL_EXPORT);
+        } else {
+            final Path watermarkFile = Paths.get(watermarkPath);
+            final long since = Files.exists(watermarkFile)
+                    ? Long.parseLong(new String(Files.readAllBytes(watermarkFile), StandardCharsets.UTF_8).trim())
+                    : 0;
+            final long watermark = exportLuceneToCSV(indexPath, csvPath, nThreads, keepShards, project, since);
+            final Path tmp = Paths.get(watermarkPath + ".tmp");
+            Files.write(tmp, (watermark + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, watermarkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Watermark: " + since + " -> " + watermark);
+        }
 
         System.out.println("Export complete: " + csvPath);
     }
 
     public static void exportLuceneToCSV(final String indexDir, final String csvFile) throws Exception {
+        exportLuceneToCSV(indexDir, csvFile, 1, false, false, FULL_EXPORT);
+    }
+
+    public static long exportLuceneToCSV(final String indexDir, final String csvFile, final int nThreads,
+            final boolean keepShards, final boolean project, final long since) throws Exception {
         final FSDirectory dir = FSDirectory.open(Paths.get(indexDir));
         try (final IndexReader reader = DirectoryReader.open(dir)) {
-            final Set<String> fieldSet = new LinkedHashSet<>();
-            for (final LeafReaderContext ctx : reader.leaves()) {
-                final LeafReader leafReader = ctx.reader();
-                for (final FieldInfo fi : leafReader.getFieldInfos()) {
-                    fieldSet.add(fi.name);
+            final List<String> fields = project ? PROJECTED_FIELDS : getFields(reader);
+
+            final List<String> deletes = new ArrayList<>();
+            final AtomicLong undated = new AtomicLong();
+            long watermark = since;
+
+            if (nThreads <= 1 && !keepShards) {
+                try (final CSVWriter writer = openCSVWriter(Paths.get(csvFile))) {
+                    for (final LeafReaderContext ctx : reader.leaves())
+                        watermark = Math.max(watermark,
+                                exportLeaf(ctx.reader(), fields, project, since, writer, deletes, undated));
                 }
+                if (since != FULL_EXPORT)
+                    writeDeletes(Paths.get(csvFile + ".deletes"), deletes, undated.get());
+                return watermark;
             }
-            final List<String> fields = new ArrayList<>(fieldSet);
-            System.out.println("Fields: " + fields.toString());
 
-            try (final BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+            try {
+                final List<Future<LeafResult>> futures = new ArrayList<>();
                 for (final LeafReaderContext ctx : reader.leaves()) {
-                    final LeafReader leafReader = ctx.reader();
-                    final Bits liveDocs = leafReader.getLiveDocs();
-                    final int maxDoc = leafReader.maxDoc();
-                    for (int i = 0; i < maxDoc; i++) {
-                        if (liveDocs != null && !liveDocs.get(i)) {
-                            continue;
+                    final Path shard = Paths.get(String.format("%s.%05d", csvFile, ctx.ord));
+                    futures.add(executor.submit(() -> {
+                        final List<String> leafDeletes = new ArrayList<>();
+                        try (final CSVWriter writer = openCSVWriter(shard)) {
+                            final long leafWatermark = exportLeaf(ctx.reader(), fields, project, since, writer,
+                                    leafDeletes, undated);
+                            return new LeafResult(shard, leafWatermark, leafDeletes);
+                        }
+                    }));
+                }
+
+                final List<Path> shards = new ArrayList<>();
+                for (final Future<LeafResult> future : futures) {
+                    final LeafResult result = future.get();
+                    shards.add(result.shard);
+                    watermark = Math.max(watermark, result.watermark);
+                    deletes.addAll(result.deletes);
+                }
+                System.out.printf("Exported %d shards\n", shards.size());
+
+                if (keepShards)
+                    writeManifest(Paths.get(csvFile + ".manifest"), shards);
+                else
+                    concatShards(Paths.get(csvFile), shards);
+                if (since != FULL_EXPORT)
+                    writeDeletes(Paths.get(csvFile + ".deletes"), deletes, undated.get());
+                return watermark;
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    public static long copyLuceneToDB(final String indexDir, final int nThreads, final boolean project)
+            throws Exception {
+        final FSDirectory dir = FSDirectory.open(Paths.get(indexDir));
+        try (
+                final IndexReader reader = DirectoryReader.open(dir);
+                final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            final List<String> fields = project ? PROJECTED_FIELDS : getFields(reader);
+            conn.setAutoCommit(false);
+
+            final CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_IMPORTED_SQL);
+            final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(COPY_QUEUE_SIZE);
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (final LeafReaderContext ctx : reader.leaves()) {
+                    futures.add(executor.submit(() -> {
+                        try (final CSVWriter writer = new CSVWriter(new QueueChannel(queue), CSV_BUFFER_SIZE)) {
+                            exportLeaf(ctx.reader(), fields, project, FULL_EXPORT, writer, null, null);
                         }
-                        final Document doc = leafReader.document(i);
-                        final List<String> row = new ArrayList<>();
-                        for (final String field : fields) {
-                            final String value = doc.get(field);
-                            row.add(value == null ? "" : value);
+                        return null;
+                    }));
+                }
+
+                try {
+                    int finished = 0;
+                    while (finished < futures.size()) {
+                        final byte[] chunk = queue.take();
+                        if (chunk == QueueChannel.END) {
+                            finished++;
+                            continue;
                         }
-                        writeCSVRow(writer, row);
+                        copyIn.writeToCopy(chunk, 0, chunk.length);
                     }
+
+                    for (final Future<?> future : futures)
+                        future.get();
+                } catch (Exception e) {
+                    if (copyIn.isActive())
+                        copyIn.cancelCopy();
+                    throw e;
                 }
+
+                final long rows = copyIn.endCopy();
+                conn.commit();
+                return rows;
+            } finally {
+                executor.shutdownNow();
             }
         }
     }
 
-    private static void writeCSVRow(final Writer writer, final List<String> values) throws IOException {
-        final StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < values.size(); i++) {
-            if (i > 0)
-                sb.append(',');
-            sb.append(csvEscape(values.get(i)));
+    private static List<String> getFields(final IndexReader reader) {
+        final Set<String> fieldSet = new LinkedHashSet<>();
+        for (final LeafReaderContext ctx : reader.leaves()) {
+            final LeafReader leafReader = ctx.reader();
+            for (final FieldInfo fi : leafReader.getFieldInfos()) {
+                fieldSet.add(fi.name);
+            }
         }
-        writer.write(sb.append('\n').toString());
+        final List<String> fields = new ArrayList<>(fieldSet);
+        System.out.println("Fields: " + fields.toString());
+        return fields;
     }
 
-    private static String csvEscape(final String value) {
-        if (value == null)
-            return "";
-        final boolean needEscape = value.contains(",") || value.contains("\"") || value.contains("\n")
-                || value.contains("\r");
-        if (!needEscape)
-            return value;
-        return "\"" + value.replace("\"", "\"\"") + "\"";
+    private static CSVWriter openCSVWriter(final Path path) throws IOException {
+        return new CSVWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), CSV_BUFFER_SIZE);
+    }
+
+    private static long exportLeaf(final LeafReader leafReader, final List<String> fields, final boolean project,
+            final long since, final CSVWriter writer, final List<String> deletes, final AtomicLong undated)
+            throws IOException {
+        final Bits liveDocs = leafReader.getLiveDocs();
+        final int maxDoc = leafReader.maxDoc();
+        final StoredFields storedFields = leafReader.storedFields();
+        final List<String> visitorFields = new ArrayList<>(fields);
+        if (since != FULL_EXPORT) {
+            if (!visitorFields.contains("m"))
+                visitorFields.add("m");
+            if (!visitorFields.contains("del"))
+                visitorFields.add("del");
+        }
+        final int mSlot = visitorFields.indexOf("m");
+        final int delSlot = visitorFields.indexOf("del");
+        final FieldVisitor visitor = new FieldVisitor(leafReader.getFieldInfos(), visitorFields);
+        final String[] values = visitor.values;
+        long watermark = since;
+        for (int i = 0; i < maxDoc; i++) {
+            if (liveDocs != null && !liveDocs.get(i)) {
+                continue;
+            }
+            visitor.reset();
+            storedFields.document(i, visitor);
+
+            if (since != FULL_EXPORT) {
+                final String m = values[mSlot];
+                final long modified = m == null ? Long.MIN_VALUE : CSVWriter.parseLong(m, 0, m.length());
+                if (modified == Long.MIN_VALUE) {
+                    undated.incrementAndGet();
+                    continue;
+                }
+                if (modified < since)
+                    continue;
+                watermark = Math.max(watermark, modified);
+                if (values[delSlot] != null) {
+                    deletes.add(values[delSlot]);
+                    continue;
+                }
+            }
+
+            if (project) {
+                writeProjectedRow(writer, values);
+            } else {
+                for (int j = 0; j < fields.size(); j++)
+                    writer.field(values[j]);
+                writer.endRow();
+            }
+        }
+        return watermark;
+    }
+
+    private static void writeProjectedRow(final CSVWriter writer, final String[] values) throws IOException {
+        final String u = values[U_FIELD];
+        if (u == null)
+            return;
+
+        final String m = values[M_FIELD];
+        writeTimestamp(writer, m, 0, m == null ? 0 : m.length());
+        for (int j = M_FIELD + 1; j < PROJECTED_FIELDS.size(); j++)
+            writer.field(values[j]);
+
+        int start = 0;
+        for (int j = 0; j < 5; j++) {
+            final int end = partEnd(u, start);
+            writer.text(u, start, end);
+            start = Math.min(end + 1, u.length());
+        }
+
+        final String info = values[I_FIELD];
+        if (info == null) {
+            writer.nullField();
+            writer.nullField();
+            writer.nullField();
+        } else {
+            final int packagingEnd = partEnd(info, 0);
+            writer.text(info, 0, packagingEnd);
+            final int lastModifiedStart = Math.min(packagingEnd + 1, info.length());
+            final int lastModifiedEnd = partEnd(info, lastModifiedStart);
+            writeTimestamp(writer, info, lastModifiedStart, lastModifiedEnd);
+            final int sizeStart = Math.min(lastModifiedEnd + 1, info.length());
+            final long size = CSVWriter.parseLong(info, sizeStart, partEnd(info, sizeStart));
+            if (size == Long.MIN_VALUE)
+                writer.nullField();
+            else
+                writer.number(size);
+        }
+        writer.endRow();
+    }
+
+    private static int partEnd(final String value, final int start) {
+        final int end = value.indexOf('|', start);
+        return end < 0 ? value.length() : end;
+    }
+
+    private static void writeTimestamp(final CSVWriter writer, final String value, final int start, final int end)
+            throws IOException {
+        final long millis = value == null ? Long.MIN_VALUE : CSVWriter.parseLong(value, start, end);
+        if (millis == Long.MIN_VALUE)
+            writer.nullField();
+        else
+            writer.timestamp(millis);
+    }
+
+    private static void writeDeletes(final Path path, final List<String> deletes, final long undated)
+            throws IOException {
+        try (final CSVWriter writer = openCSVWriter(path)) {
+            for (final String uinfo : deletes) {
+                int start = 0;
+                for (int j = 0; j < 5; j++) {
+                    final int end = partEnd(uinfo, start);
+                    writer.text(uinfo, start, end);
+                    start = Math.min(end + 1, uinfo.length());
+                }
+                writer.endRow();
+            }
+        }
+        System.out.printf("Exported %d deletions\n", deletes.size());
+        System.out.printf("Skipped %d documents without a valid m\n", undated);
+    }
+
+    private static void writeManifest(final Path manifest, final List<Path> shards) throws IOException {
+        try (final BufferedWriter writer = Files.newBufferedWriter(manifest)) {
+            for (final Path shard : shards) {
+                writer.write(shard.toAbsolutePath().toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static void concatShards(final Path csvFile, final List<Path> shards) throws IOException {
+        try (final FileChannel out = FileChannel.open(csvFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (final Path shard : shards) {
+                try (final FileChannel in = FileChannel.open(shard, StandardOpenOption.READ)) {
+                    final long size = in.size();
+                    long pos = 0;
+                    while (pos < size)
+                        pos += in.transferTo(pos, size - pos, out);
+                }
+                Files.delete(shard);
+            }
+        }
+    }
+
+    private static class LeafResult {
+        public final Path shard;
+        public final long watermark;
+        public final List<String> deletes;
+
+        public LeafResult(final Path shard, final long watermark, final List<String> deletes) {
+            this.shard = shard;
+            this.watermark = watermark;
+            this.deletes = deletes;
+        }
+    }
+
+    private static class FieldVisitor extends StoredFieldVisitor {
+        public final String[] values;
+        private final int[] slots;
+
+        public FieldVisitor(final FieldInfos fieldInfos, final List<String> fields) {
+            this.values = new String[fields.size()];
+            int maxNumber = -1;
+            for (final FieldInfo fi : fieldInfos)
+                maxNumber = Math.max(maxNumber, fi.number);
+            this.slots = new int[maxNumber + 1];
+            Arrays.fill(this.slots, -1);
+            for (final FieldInfo fi : fieldInfos)
+                this.slots[fi.number] = fields.indexOf(fi.name);
+        }
+
+        public void reset() {
+            Arrays.fill(values, null);
+        }
+
+        @Override
+        public Status needsField(final FieldInfo fieldInfo) {
+            return slots[fieldInfo.number] < 0 ? Status.NO : Status.YES;
+        }
+
+        @Override
+        public void stringField(final FieldInfo fieldInfo, final String value) {
+            final int slot = slots[fieldInfo.number];
+            if (values[slot] == null)
+                values[slot] = value;
+        }
+    }
+
+    private static class QueueChannel implements WritableByteChannel {
+        public static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> queue;
+        private boolean open = true;
+
+        public QueueChannel(final BlockingQueue<byte[]> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final byte[] chunk = new byte[src.remaining()];
+            src.get(chunk);
+            put(chunk);
+            return chunk.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open)
+                return;
+            open = false;
+            put(END);
+        }
+
+        private void put(final byte[] chunk) throws IOException {
+            try {
+                queue.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
     }
 }
@@ -0,0 +1,118 @@
+package net.w_graj.luceneexport;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVWriterBenchmark {
+    private static final int N_ROWS = 10000;
+    private static final int N_FIELDS = 28;
+
+    private String[][] rows;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        rows = new String[N_ROWS][N_FIELDS];
+        for (final String[] row : rows) {
+            row[0] = "org.example.group" + random.nextInt(1000) + "|artifact-" + random.nextInt(100000) + "|1."
+                    + random.nextInt(20) + "." + random.nextInt(10) + "|NA|jar";
+            row[1] = Long.toString(1_600_000_000_000L + random.nextInt(Integer.MAX_VALUE));
+            row[2] = "jar|" + row[1] + "|" + random.nextInt(10_000_000) + "|0|0|1|jar";
+            for (int i = 3; i < N_FIELDS; i++) {
+                final int kind = random.nextInt(10);
+                if (kind < 6)
+                    row[i] = null;
+                else if (kind < 8)
+                    row[i] = "value" + random.nextInt(1000);
+                else
+                    row[i] = packageHeader(random);
+            }
+        }
+    }
+
+    private static String packageHeader(final Random random) {
+        final StringBuilder sb = new StringBuilder();
+        final int n = 1 + random.nextInt(30);
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("org.example.pkg").append(random.nextInt(1000)).append(";version=\"[1.")
+                    .append(random.nextInt(10)).append(",2)\"");
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_ROWS)
+    public void legacyWriter() throws IOException {
+        try (final Writer writer = new BufferedWriter(
+                new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8))) {
+            for (final String[] row : rows) {
+                final List<String> values = new ArrayList<>();
+                for (final String value : row)
+                    values.add(value == null ? "" : value);
+                writeCSVRow(writer, values);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_ROWS)
+    public void csvWriter() throws IOException {
+        try (final CSVWriter writer = new CSVWriter(Channels.newChannel(OutputStream.nullOutputStream()),
+                1 << 20)) {
+            for (final String[] row : rows) {
+                for (final String value : row)
+                    writer.field(value);
+                writer.endRow();
+            }
+        }
+    }
+
+    private static void writeCSVRow(final Writer writer, final List<String> values) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(csvEscape(values.get(i)));
+        }
+        writer.write(sb.append('\n').toString());
+    }
+
+    private static String csvEscape(final String value) {
+        if (value == null)
+            return "";
+        final boolean needEscape = value.contains(",") || value.contains("\"") || value.contains("\n")
+                || value.contains("\r");
+        if (!needEscape)
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,403 @@
+package net.w_graj.overlap;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+public class Overlap {
+    private static final String DB_URL = "jdbc:postgresql:cse3000";
+    private static final String DB_USER = "wojtek";
+    private static final String DB_PASS = "";
+
+    private static final int FETCH_SIZE = 4096;
+    private static final int CHUNK_SIZE = 256;
+    private static final int QUEUE_SIZE = 64;
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+    private static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ForkJoinTask<Coefficients> END = ForkJoinTask.adapt(() -> new Coefficients());
+
+    private static final String SELECT_ARTIFACTS_SQL = "SELECT"
+            + "\n    id,"
+            + "\n    root_group_id"
+            + "\nFROM"
+            + "\n    artifacts"
+            + "\nORDER BY"
+            + "\n    root_group_id,"
+            + "\n    id";
+
+    private static final String SELECT_VERSION_COUNTS_SQL = "SELECT"
+            + "\n    artifact_id,"
+            + "\n    count(*)"
+            + "\nFROM"
+            + "\n    versions"
+            + "\nGROUP BY"
+            + "\n    artifact_id";
+
+    private static final String SELECT_COUNTS_SQL = "SELECT"
+            + "\n    from_artifact_id,"
+            + "\n    to_artifact_id,"
+            + "\n    cnt"
+            + "\nFROM"
+            + "\n    artifact_dependency_counts";
+
+    private static final String COPY_OVERLAP_SQL = "COPY artifact_overlap_coefficients(a_artifact_id, b_artifact_id, coeff) FROM STDIN";
+    private static final String COPY_SELF_OVERLAP_SQL = "COPY self_artifact_overlap_coefficients(a_artifact_id, b_artifact_id, coeff) FROM STDIN";
+
+    private static class IntList {
+        private int[] values = new int[1 << 16];
+        private int size = 0;
+
+        public void add(final int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        public int get(final int i) {
+            return values[i];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    private static class Artifacts {
+        public final int[] ids;
+        public final int[] roots;
+        public final int[] seqs;
+
+        public Artifacts(final int[] ids, final int[] roots, final int[] seqs) {
+            this.ids = ids;
+            this.roots = roots;
+            this.seqs = seqs;
+        }
+    }
+
+    private static class Matrix {
+        public final int[] roots;
+        public final int[] ids;
+        public final boolean[] addedSelf;
+        public final int[] colStart;
+        public final int[] colRows;
+        public final int[] colValues;
+        public final int[] rowStart;
+        public final int[] rowCols;
+        public final int[] rowValues;
+        public final long[] sums;
+        public final long[] selfSums;
+
+        public Matrix(final Artifacts artifacts, final int[] versionCounts, final IntList from, final IntList to,
+                final IntList cnt) {
+            final int n = artifacts.ids.length;
+            this.roots = artifacts.roots;
+            this.ids = artifacts.ids;
+            this.addedSelf = new boolean[n];
+            this.sums = new long[n];
+            this.selfSums = new long[n];
+
+            final boolean[] hasSelf = new boolean[n];
+            for (int i = 0; i < from.size(); i++)
+                if (from.get(i) == to.get(i))
+                    hasSelf[from.get(i)] = true;
+            for (int i = 0; i < n; i++) {
+                if (!hasSelf[i] && versionCounts[i] > 0) {
+                    addedSelf[i] = true;
+                    from.add(i);
+                    to.add(i);
+                    cnt.add(versionCounts[i]);
+                }
+            }
+
+            final int m = from.size();
+            colStart = new int[n + 1];
+            for (int i = 0; i < m; i++)
+                colStart[to.get(i) + 1]++;
+            for (int i = 0; i < n; i++)
+                colStart[i + 1] += colStart[i];
+            colRows = new int[m];
+            colValues = new int[m];
+            final int[] colNext = Arrays.copyOf(colStart, n);
+            for (int i = 0; i < m; i++) {
+                final int k = colNext[to.get(i)]++;
+                colRows[k] = from.get(i);
+                colValues[k] = cnt.get(i);
+            }
+
+            rowStart = new int[n + 1];
+            for (int i = 0; i < m; i++)
+                rowStart[from.get(i) + 1]++;
+            for (int i = 0; i < n; i++)
+                rowStart[i + 1] += rowStart[i];
+            rowCols = new int[m];
+            rowValues = new int[m];
+            final int[] rowNext = Arrays.copyOf(rowStart, n);
+            for (int col = 0; col < n; col++) {
+                for (int k = colStart[col]; k < colStart[col + 1]; k++) {
+                    final int j = rowNext[colRows[k]]++;
+                    rowCols[j] = col;
+                    rowValues[j] = colValues[k];
+                    if (colRows[k] == col && addedSelf[col])
+                        selfSums[col] += colValues[k];
+                    else
+                        sums[col] += colValues[k];
+                }
+                selfSums[col] += sums[col];
+            }
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public boolean isAddedSelf(final int row, final int col) {
+            return row == col && addedSelf[col];
+        }
+    }
+
+    private static class Accumulator {
+        public final int[] pairSums;
+        public final int[] selfPairSums;
+        public final int[] touched;
+        public int nTouched = 0;
+
+        public Accumulator(final int n) {
+            this.pairSums = new int[n];
+            this.selfPairSums = new int[n];
+            this.touched = new int[n];
+        }
+    }
+
+    private static class Coefficients {
+        public final StringBuilder overlap = new StringBuilder();
+        public final StringBuilder selfOverlap = new StringBuilder();
+        public int count = 0;
+        public int selfCount = 0;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Matrix matrix = load();
+        System.out.printf("Loaded %d artifacts, %d counts\n", matrix.size(), matrix.rowCols.length);
+
+        final BlockingQueue<ForkJoinTask<Coefficients>> tasks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(matrix.size()));
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final Thread writer = Thread.currentThread();
+        try {
+            final Future<?> readerFuture = reader.submit(() -> {
+                try {
+                    for (int start = 0; start < matrix.size(); start += CHUNK_SIZE) {
+                        final int chunkStart = start;
+                        final int chunkEnd = Math.min(start + CHUNK_SIZE, matrix.size());
+                        tasks.put(pool.submit(ForkJoinTask.adapt(
+                                () -> compute(matrix, accumulators.get(), chunkStart, chunkEnd))));
+                    }
+                    tasks.put(END);
+                    return null;
+                } catch (Exception e) {
+                    System.err.println(e);
+                    writer.interrupt();
+                    throw e;
+                }
+            });
+
+            write(tasks);
+            readerFuture.get();
+        } finally {
+            reader.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    private static Matrix load() throws SQLException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final Artifacts artifacts = loadArtifacts(conn);
+
+            final int[] versionCounts = new int[artifacts.ids.length];
+            try (
+                    final PreparedStatement select = conn.prepareStatement(
+                            SELECT_VERSION_COUNTS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+                select.setFetchSize(FETCH_SIZE);
+                final ResultSet rs = select.executeQuery();
+                while (rs.next())
+                    versionCounts[artifacts.seqs[rs.getInt(1)]] = rs.getInt(2);
+            }
+
+            final IntList from = new IntList();
+            final IntList to = new IntList();
+            final IntList cnt = new IntList();
+            try (
+                    final PreparedStatement select = conn.prepareStatement(
+                            SELECT_COUNTS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+                select.setFetchSize(FETCH_SIZE);
+                final ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    from.add(artifacts.seqs[rs.getInt(1)]);
+                    to.add(artifacts.seqs[rs.getInt(2)]);
+                    cnt.add(rs.getInt(3));
+                }
+            }
+
+            conn.commit();
+            return new Matrix(artifacts, versionCounts, from, to, cnt);
+        }
+    }
+
+    private static Artifacts loadArtifacts(final Connection conn) throws SQLException {
+        final IntList ids = new IntList();
+        final IntList roots = new IntList();
+        int maxId = 0;
+        try (
+                final PreparedStatement select = conn.prepareStatement(
+                        SELECT_ARTIFACTS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            select.setFetchSize(FETCH_SIZE);
+            final ResultSet rs = select.executeQuery();
+            String lastRoot = null;
+            int root = -1;
+            while (rs.next()) {
+                final int id = rs.getInt(1);
+                final String rootGroupId = rs.getString(2);
+                if (!rootGroupId.equals(lastRoot)) {
+                    lastRoot = rootGroupId;
+                    root++;
+                }
+                ids.add(id);
+                roots.add(root);
+                maxId = Math.max(maxId, id);
+            }
+        }
+
+        final int[] seqs = new int[maxId + 1];
+        for (int i = 0; i < ids.size(); i++)
+            seqs[ids.get(i)] = i;
+        return new Artifacts(Arrays.copyOf(ids.values, ids.size()), Arrays.copyOf(roots.values, roots.size()),
+                seqs);
+    }
+
+    private static Coefficients compute(final Matrix matrix, final Accumulator acc, final int start, final int end) {
+        final Coefficients coefficients = new Coefficients();
+
+        for (int a = start; a < end; a++) {
+            final int root = matrix.roots[a];
+            for (int k = matrix.colStart[a]; k < matrix.colStart[a + 1]; k++) {
+                final int row = matrix.colRows[k];
+                final int aValue = matrix.colValues[k];
+                final boolean aAddedSelf = matrix.isAddedSelf(row, a);
+                final int rowEnd = matrix.rowStart[row + 1];
+
+                for (int j = Arrays.binarySearch(matrix.rowCols, matrix.rowStart[row], rowEnd, a) + 1; j < rowEnd
+                        && matrix.roots[matrix.rowCols[j]] == root; j++) {
+                    final int b = matrix.rowCols[j];
+                    final int min = Math.min(aValue, matrix.rowValues[j]);
+                    if (acc.selfPairSums[b] == 0)
+                        acc.touched[acc.nTouched++] = b;
+                    acc.selfPairSums[b] += min;
+                    if (!aAddedSelf && !matrix.isAddedSelf(row, b))
+                        acc.pairSums[b] += min;
+                }
+            }
+
+            for (int i = 0; i < acc.nTouched; i++) {
+                final int b = acc.touched[i];
+                if (acc.pairSums[b] > 0) {
+                    append(coefficients.overlap, matrix.ids[a], matrix.ids[b],
+                            (double) acc.pairSums[b] / Math.min(matrix.sums[a], matrix.sums[b]));
+                    coefficients.count++;
+                }
+                append(coefficients.selfOverlap, matrix.ids[a], matrix.ids[b],
+                        (double) acc.selfPairSums[b] / Math.min(matrix.selfSums[a], matrix.selfSums[b]));
+                coefficients.selfCount++;
+
+                acc.pairSums[b] = 0;
+                acc.selfPairSums[b] = 0;
+            }
+            acc.nTouched = 0;
+        }
+
+        return coefficients;
+    }
+
+    private static void append(final StringBuilder sb, final int a, final int b, final double coeff) {
+        sb.append(a);
+        sb.append('\t');
+        sb.append(b);
+        sb.append('\t');
+        sb.append((float) coeff);
+        sb.append('\n');
+    }
+
+    private static void write(final BlockingQueue<ForkJoinTask<Coefficients>> tasks)
+            throws SQLException, InterruptedException {
+        try (
+                final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+                final Connection selfConn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            selfConn.setAutoCommit(false);
+            final CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_OVERLAP_SQL);
+            final CopyIn selfCopyIn = selfConn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SELF_OVERLAP_SQL);
+            try {
+                final StringBuilder sb = new StringBuilder();
+                final StringBuilder selfSb = new StringBuilder();
+                long count = 0;
+                long selfCount = 0;
+
+                while (true) {
+                    final ForkJoinTask<Coefficients> task = tasks.take();
+                    if (task == END)
+                        break;
+
+                    final Coefficients coefficients = task.join();
+                    sb.append(coefficients.overlap);
+                    selfSb.append(coefficients.selfOverlap);
+                    if ((count + coefficients.count) / 1000000 != count / 1000000)
+                        System.out.printf("%d coefficients, %d self coefficients\n", count + coefficients.count,
+                                selfCount + coefficients.selfCount);
+                    count += coefficients.count;
+                    selfCount += coefficients.selfCount;
+
+                    if (sb.length() >= COPY_BUFFER_SIZE)
+                        flush(copyIn, sb);
+                    if (selfSb.length() >= COPY_BUFFER_SIZE)
+                        flush(selfCopyIn, selfSb);
+                }
+
+                flush(copyIn, sb);
+                flush(selfCopyIn, selfSb);
+                copyIn.endCopy();
+                selfCopyIn.endCopy();
+                System.out.printf("%d coefficients, %d self coefficients\n", count, selfCount);
+            } finally {
+                if (copyIn.isActive())
+                    copyIn.cancelCopy();
+                if (selfCopyIn.isActive())
+                    selfCopyIn.cancelCopy();
+            }
+
+            conn.commit();
+            selfConn.commit();
+        }
+    }
+
+    private static void flush(final CopyIn copyIn, final StringBuilder sb) throws SQLException {
+        final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        sb.setLength(0);
+    }
+}
@@ -0,0 +1,30 @@
+CREATE TABLE imported_delta(
+    m TIMESTAMP,
+    _1 TEXT,
+    Bundle_SymbolicName TEXT,
+    Bundle_Version TEXT,
+    Export_Package TEXT,
+    Bundle_NAME TEXT,
+    Bundle_Description TEXT,
+    Bundle_DocURL TEXT,
+    Import_Package TEXT,
+    Bundle_License TEXT,
+    Require_Bundle TEXT,
+    Export_Service TEXT,
+    group_id TEXT,
+    artifact_id TEXT,
+    version TEXT,
+    classifier TEXT,
+    ext TEXT,
+    packaging TEXT,
+    last_modified TIMESTAMP,
+    size BIGINT
+);
+
+CREATE TABLE imported_deletes(
+    group_id TEXT,
+    artifact_id TEXT,
+    version TEXT,
+    classifier TEXT,
+    ext TEXT
+);
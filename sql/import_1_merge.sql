@@ -0,0 +1,183 @@
+CREATE TABLE deleted_files AS
+SELECT
+    files.id
+FROM
+    imported_deletes
+    JOIN artifacts ON artifacts.group_id = imported_deletes.group_id
+        AND artifacts.artifact_id = imported_deletes.artifact_id
+    JOIN versions ON versions.artifact_id = artifacts.id
+        AND versions.version = imported_deletes.version
+    JOIN files ON files.version_id = versions.id
+        AND files.classifier IS NOT DISTINCT FROM imported_deletes.classifier
+        AND files.ext IS NOT DISTINCT FROM imported_deletes.ext;
+
+CREATE TABLE deleted_bundle_versions AS
+SELECT
+    bundle_versions.id
+FROM
+    bundle_versions
+    JOIN deleted_files ON deleted_files.id = bundle_versions.file_id;
+
+DELETE FROM imported_bundles USING deleted_bundle_versions
+WHERE imported_bundles.from_bundle_version_id = deleted_bundle_versions.id;
+
+DELETE FROM required_bundles USING deleted_bundle_versions
+WHERE required_bundles.from_bundle_version_id = deleted_bundle_versions.id;
+
+DELETE FROM exported_packages USING deleted_bundle_versions
+WHERE exported_packages.bundle_version_id = deleted_bundle_versions.id;
+
+DELETE FROM imported_packages USING deleted_bundle_versions
+WHERE imported_packages.from_bundle_version_id = deleted_bundle_versions.id;
+
+DELETE FROM bundle_versions USING deleted_bundle_versions
+WHERE bundle_versions.id = deleted_bundle_versions.id;
+
+DELETE FROM files USING deleted_files
+WHERE files.id = deleted_files.id;
+
+DROP TABLE deleted_bundle_versions;
+
+DROP TABLE deleted_files;
+
+INSERT INTO artifacts(group_id, artifact_id)
+SELECT
+    group_id,
+    artifact_id
+FROM
+    imported_delta
+ON CONFLICT (group_id,
+    artifact_id)
+    DO NOTHING;
+
+INSERT INTO versions(artifact_id, version)
+SELECT
+    artifacts.id AS artifact_id,
+    imported_delta.version
+FROM
+    imported_delta
+    JOIN artifacts ON artifacts.group_id = imported_delta.group_id
+        AND artifacts.artifact_id = imported_delta.artifact_id
+    ON CONFLICT (artifact_id,
+        version)
+        DO NOTHING;
+
+CREATE TABLE delta_files AS
+SELECT
+    versions.id AS version_id,
+    imported_delta.*
+FROM
+    imported_delta
+    JOIN artifacts ON artifacts.group_id = imported_delta.group_id
+        AND artifacts.artifact_id = imported_delta.artifact_id
+    JOIN versions ON versions.artifact_id = artifacts.id
+        AND versions.version = imported_delta.version;
+
+UPDATE
+    files
+SET
+    artifact_last_modified = delta_files.m,
+    file_last_modified = delta_files.last_modified,
+    sha1 = delta_files._1,
+    packaging = delta_files.packaging,
+    size = delta_files.size
+FROM
+    delta_files
+WHERE
+    files.version_id = delta_files.version_id
+    AND files.classifier IS NOT DISTINCT FROM delta_files.classifier
+    AND files.ext IS NOT DISTINCT FROM delta_files.ext;
+
+INSERT INTO files(version_id, artifact_last_modified, file_last_modified, sha1, classifier, ext, packaging, size)
+SELECT
+    delta_files.version_id,
+    delta_files.m,
+    delta_files.last_modified,
+    delta_files._1,
+    delta_files.classifier,
+    delta_files.ext,
+    delta_files.packaging,
+    delta_files.size
+FROM
+    delta_files
+WHERE
+    NOT EXISTS (
+        SELECT
+            1
+        FROM
+            files
+        WHERE
+            files.version_id = delta_files.version_id
+            AND files.classifier IS NOT DISTINCT FROM delta_files.classifier
+            AND files.ext IS NOT DISTINCT FROM delta_files.ext);
+
+WITH split_data AS (
+    SELECT
+        unnest(string_to_array(bundle_symbolicname, ',')) AS part
+    FROM
+        delta_files
+    WHERE
+        bundle_symbolicname IS NOT NULL
+),
+bundle_symbolic_names AS (
+    SELECT
+        trim(BOTH ' ' FROM split_part(part, ';', 1)) AS bundle_symbolic_name
+    FROM
+        split_data)
+    INSERT INTO bundles(bundle_symbolic_name)
+    SELECT
+        bundle_symbolic_name
+    FROM
+        bundle_symbolic_names
+    WHERE
+        bundle_symbolic_name ~ '^[a-zA-Z0-9\-_\.]+$'
+    ON CONFLICT (bundle_symbolic_name)
+        DO NOTHING;
+
+WITH split_data AS (
+    SELECT
+        files.id,
+        unnest(string_to_array(delta_files.bundle_symbolicname, ',')) AS part,
+        delta_files.bundle_version,
+        delta_files.export_package,
+        delta_files.import_package,
+        delta_files.require_bundle,
+        delta_files.export_service
+    FROM
+        delta_files
+        JOIN files ON files.version_id = delta_files.version_id
+            AND files.classifier IS NOT DISTINCT FROM delta_files.classifier
+            AND files.ext IS NOT DISTINCT FROM delta_files.ext
+    WHERE
+        delta_files.bundle_symbolicname IS NOT NULL
+        AND delta_files.bundle_version ~ '^[a-zA-Z0-9\-_\.]+$'
+),
+bundle_symbolic_names AS (
+    SELECT
+        split_data.*,
+        trim(BOTH ' ' FROM split_part(part, ';', 1)) AS bundle_symbolic_name
+    FROM
+        split_data)
+    INSERT INTO bundle_versions(file_id, bundle_id, bundle_version, export_package, import_package, require_bundle, export_service)
+    SELECT
+        bundle_symbolic_names.id AS file_id,
+        bundles.id AS bundle_id,
+        bundle_symbolic_names.bundle_version,
+        bundle_symbolic_names.export_package,
+        bundle_symbolic_names.import_package,
+        bundle_symbolic_names.require_bundle,
+        bundle_symbolic_names.export_service
+    FROM
+        bundle_symbolic_names
+        JOIN bundles ON bundles.bundle_symbolic_name = bundle_symbolic_names.bundle_symbolic_name
+    ON CONFLICT
+        DO NOTHING;
+
+DELETE FROM progress
+WHERE name = 'imported_packages';
+
+DROP TABLE delta_files;
+
+DROP TABLE imported_delta;
+
+DROP TABLE imported_deletes;
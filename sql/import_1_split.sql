@@ -0,0 +1,48 @@
+ALTER TABLE imported
+    DROP COLUMN e,
+    DROP COLUMN g,
+    DROP COLUMN p,
+    DROP COLUMN groupId,
+    DROP COLUMN a,
+    DROP COLUMN artifactId,
+    DROP COLUMN v,
+    DROP COLUMN version,
+    DROP COLUMN l,
+    DROP COLUMN del,
+    DROP COLUMN descriptor,
+    DROP COLUMN idxinfo;
+
+DELETE FROM imported
+WHERE u IS NULL;
+
+ALTER TABLE imported
+    ADD COLUMN group_id TEXT,
+    ADD COLUMN artifact_id TEXT,
+    ADD COLUMN version TEXT,
+    ADD COLUMN classifier TEXT,
+    ADD COLUMN ext TEXT,
+    ADD COLUMN packaging TEXT,
+    ADD COLUMN last_modified TEXT,
+    ADD COLUMN size TEXT;
+
+UPDATE
+    imported
+SET
+    group_id = split_part(u, '|', 1),
+    artifact_id = split_part(u, '|', 2),
+    version = split_part(u, '|', 3),
+    classifier = split_part(u, '|', 4),
+    ext = split_part(u, '|', 5),
+    packaging = split_part(i, '|', 1),
+    last_modified = split_part(i, '|', 2),
+    size = split_part(i, '|', 3);
+
+ALTER TABLE imported
+    DROP COLUMN u,
+    DROP COLUMN i,
+    ALTER COLUMN m TYPE TIMESTAMP
+    USING to_timestamp(cast(m AS BIGINT) / 1000.0) AT TIME ZONE 'UTC',
+    ALTER COLUMN last_modified TYPE TIMESTAMP
+        USING to_timestamp(cast(last_modified AS BIGINT) / 1000.0) AT TIME ZONE 'UTC',
+        ALTER COLUMN size TYPE BIGINT
+            USING cast(size AS BIGINT);
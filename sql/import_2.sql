@@ -1,52 +1,3 @@
-ALTER TABLE imported
-    DROP COLUMN e,
-    DROP COLUMN g,
-    DROP COLUMN p,
-    DROP COLUMN groupId,
-    DROP COLUMN a,
-    DROP COLUMN artifactId,
-    DROP COLUMN v,
-    DROP COLUMN version,
-    DROP COLUMN l,
-    DROP COLUMN del,
-    DROP COLUMN descriptor,
-    DROP COLUMN idxinfo;
-
-DELETE FROM imported
-WHERE u IS NULL;
-
-ALTER TABLE imported
-    ADD COLUMN group_id TEXT,
-    ADD COLUMN artifact_id TEXT,
-    ADD COLUMN version TEXT,
-    ADD COLUMN classifier TEXT,
-    ADD COLUMN ext TEXT,
-    ADD COLUMN packaging TEXT,
-    ADD COLUMN last_modified TEXT,
-    ADD COLUMN size TEXT;
-
-UPDATE
-    imported
-SET
-    group_id = split_part(u, '|', 1),
-    artifact_id = split_part(u, '|', 2),
-    version = split_part(u, '|', 3),
-    classifier = split_part(u, '|', 4),
-    ext = split_part(u, '|', 5),
-    packaging = split_part(i, '|', 1),
-    last_modified = split_part(i, '|', 2),
-    size = split_part(i, '|', 3);
-
-ALTER TABLE imported
-    DROP COLUMN u,
-    DROP COLUMN i,
-    ALTER COLUMN m TYPE TIMESTAMP
-    USING to_timestamp(cast(m AS BIGINT) / 1000.0),
-    ALTER COLUMN last_modified TYPE TIMESTAMP
-        USING to_timestamp(cast(last_modified AS BIGINT) / 1000.0),
-        ALTER COLUMN size TYPE BIGINT
-            USING cast(size AS BIGINT);
-
 CREATE TABLE artifacts(
     id INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
     group_id TEXT NOT NULL,
@@ -245,3 +196,8 @@ CREATE TABLE imported_packages(
     version TEXT,
     PRIMARY KEY (from_bundle_version_id, to_package_id)
 );
+
+CREATE TABLE progress(
+    name TEXT NOT NULL PRIMARY KEY,
+    watermark INTEGER NOT NULL
+);
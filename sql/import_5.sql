@@ -5,7 +5,9 @@ CREATE TABLE dependencies(
     to_artifact_id INTEGER NOT NULL REFERENCES artifacts(id),
     version TEXT,
     scope TEXT,
-    managed BOOLEAN NOT NULL
+    managed BOOLEAN NOT NULL,
+    resolved_version TEXT,
+    resolved_scope TEXT
 );
 
 CREATE TABLE parents(
@@ -17,3 +19,10 @@ CREATE TABLE parents(
 CREATE TABLE is_reproducible(
     version_id INTEGER NOT NULL PRIMARY KEY REFERENCES versions(id)
 );
+
+CREATE TABLE artifact_dependency_counts(
+    from_artifact_id INTEGER NOT NULL REFERENCES artifacts(id),
+    to_artifact_id INTEGER NOT NULL REFERENCES artifacts(id),
+    cnt INTEGER NOT NULL,
+    PRIMARY KEY (from_artifact_id, to_artifact_id)
+);
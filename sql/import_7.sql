@@ -1,3 +1,7 @@
-CREATE INDEX idx_communities_community ON communities(community);
+CREATE INDEX idx__artifact_overlap_coefficients_a_artifact_id ON artifact_overlap_coefficients(a_artifact_id);
 
-CREATE INDEX idx_versions_version ON versions(version);
+CREATE INDEX idx__artifact_overlap_coefficients_b_artifact_id ON artifact_overlap_coefficients(b_artifact_id);
+
+CREATE INDEX idx__self_artifact_overlap_coefficients_a_artifact_id ON self_artifact_overlap_coefficients(a_artifact_id);
+
+CREATE INDEX idx__self_artifact_overlap_coefficients_b_artifact_id ON self_artifact_overlap_coefficients(b_artifact_id);
@@ -0,0 +1,3 @@
+CREATE INDEX idx_communities_community ON communities(community);
+
+CREATE INDEX idx_versions_version ON versions(version);
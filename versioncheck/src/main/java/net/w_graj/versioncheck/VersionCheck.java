@@ -1,87 +1,404 @@
 package net.w_graj.versioncheck;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Version;
 import org.apache.felix.utils.version.VersionRange;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
 public class VersionCheck {
     private static final String DB_URL = "jdbc:postgresql:cse3000";
     private static final String DB_USER = "wojtek";
     private static final String DB_PASS = "";
 
-    private static final int BATCH_SIZE = 4096;
     private static final int FETCH_SIZE = 4096;
+    private static final int CHUNK_SIZE = 65536;
+    private static final int QUEUE_SIZE = 64;
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+    private static final int N_THREADS = Runtime.getRuntime().availableProcessors();
 
-    private static final String SELECT_SQL = "SELECT DISTINCT"
-            + "\n    imported_packages.version AS req_version,"
-            + "\n    exported_packages.version"
-            + "\nFROM ( SELECT DISTINCT"
-            + "\n        version,"
-            + "\n        to_package_id"
-            + "\n    FROM"
-            + "\n        imported_packages) AS imported_packages"
-            + "\n    JOIN packages ON packages.id = imported_packages.to_package_id"
-            + "\n    JOIN exported_packages ON exported_packages.package_id = packages.id"
+    private static final ForkJoinTask<Matches> END = ForkJoinTask.adapt(() -> new Matches());
+
+    private static final String SELECT_RANGES_SQL = "SELECT DISTINCT"
+            + "\n    to_package_id,"
+            + "\n    version"
+            + "\nFROM"
+            + "\n    imported_packages"
             + "\nWHERE"
-            + "\n    imported_packages.version IS NOT NULL";
+            + "\n    version IS NOT NULL"
+            + "\nORDER BY"
+            + "\n    to_package_id";
+
+    private static final String SELECT_VERSIONS_SQL = "SELECT DISTINCT"
+            + "\n    package_id,"
+            + "\n    version"
+            + "\nFROM"
+            + "\n    exported_packages"
+            + "\nORDER BY"
+            + "\n    package_id";
+
+    private static final String COPY_SQL = "COPY versions_in_range(version_range, version) FROM STDIN";
 
-    private static final String INSERT_SQL = "INSERT INTO versions_in_range(version_range, version)"
-            + "\n    VALUES (?, ?)";
+    private static class ParsedVersion {
+        public final int id;
+        public final String string;
+        public final Version version;
+
+        public ParsedVersion(final int id, final String string) {
+            Version version;
+            try {
+                version = Version.parseVersion(string);
+            } catch (Exception e) {
+                version = null;
+            }
+            this.id = id;
+            this.string = string;
+            this.version = version;
+        }
+    }
+
+    private static class ParsedRange {
+        public final int id;
+        public final String string;
+        public final VersionRange range;
+
+        public ParsedRange(final int id, final String string) {
+            VersionRange range;
+            try {
+                range = VersionRange.parseVersionRange(string);
+            } catch (Exception e) {
+                range = null;
+            }
+            this.id = id;
+            this.string = string;
+            this.range = range;
+        }
+    }
+
+    private static class LongSet {
+        private long[] keys = new long[1 << 16];
+        private int size = 0;
+
+        public boolean add(final long key) {
+            if (2 * (size + 1) > keys.length)
+                grow();
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key)
+                    return false;
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            final long[] old = keys;
+            keys = new long[old.length * 2];
+            final int mask = keys.length - 1;
+            for (final long key : old) {
+                if (key == 0)
+                    continue;
+                int i = hash(key) & mask;
+                while (keys[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = key;
+            }
+        }
+
+        private static int hash(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static class PackageVersions {
+        public final ParsedRange[] ranges;
+        public final ParsedVersion[] versions;
+
+        public PackageVersions(final ParsedRange[] ranges, final ParsedVersion[] versions) {
+            this.ranges = ranges;
+            this.versions = versions;
+        }
+    }
+
+    private static class Matches {
+        public final List<ParsedRange> ranges = new ArrayList<>();
+        public final List<ParsedVersion> versions = new ArrayList<>();
+
+        public void add(final ParsedRange range, final ParsedVersion version) {
+            ranges.add(range);
+            versions.add(version);
+        }
+
+        public Matches addAll(final Matches other) {
+            ranges.addAll(other.ranges);
+            versions.addAll(other.versions);
+            return this;
+        }
+    }
+
+    private static class MatchTask extends RecursiveTask<Matches> {
+        private final List<PackageVersions> packages;
+        private final int lo;
+        private final int hi;
+
+        public MatchTask(final List<PackageVersions> packages, final int lo, final int hi) {
+            this.packages = packages;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Matches compute() {
+            if (hi - lo == 1)
+                return match(packages.get(lo));
+
+            final int mid = (lo + hi) >>> 1;
+            final MatchTask left = new MatchTask(packages, lo, mid);
+            left.fork();
+            final Matches right = new MatchTask(packages, mid, hi).compute();
+            return left.join().addAll(right);
+        }
+    }
 
     public static void main(final String[] args) throws Exception {
+        final BlockingQueue<ForkJoinTask<Matches>> tasks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final Thread writer = Thread.currentThread();
+        try {
+            final Future<?> readerFuture = reader.submit(() -> {
+                try {
+                    read(pool, tasks);
+                    tasks.put(END);
+                    return null;
+                } catch (Exception e) {
+                    System.err.println(e);
+                    writer.interrupt();
+                    throw e;
+                }
+            });
+
+            write(tasks);
+            readerFuture.get();
+        } finally {
+            reader.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    private static void read(final ForkJoinPool pool, final BlockingQueue<ForkJoinTask<Matches>> tasks)
+            throws SQLException, InterruptedException {
         try (
                 final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
-                final PreparedStatement select = conn.prepareStatement(
-                        SELECT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                final PreparedStatement insert = conn.prepareStatement(INSERT_SQL);) {
+                final PreparedStatement selectRanges = conn.prepareStatement(
+                        SELECT_RANGES_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                final PreparedStatement selectVersions = conn.prepareStatement(
+                        SELECT_VERSIONS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
             conn.setAutoCommit(false);
-            select.setFetchSize(FETCH_SIZE);
-            final ResultSet rs = select.executeQuery();
+            selectRanges.setFetchSize(FETCH_SIZE);
+            selectVersions.setFetchSize(FETCH_SIZE);
+            final ResultSet ranges = selectRanges.executeQuery();
+            final ResultSet versions = selectVersions.executeQuery();
 
-            int row_count = 0;
-            int batch_count = 0;
+            final Map<String, ParsedRange> parsedRanges = new ConcurrentHashMap<>();
+            final Map<String, ParsedVersion> parsedVersions = new ConcurrentHashMap<>();
+            final AtomicInteger rangeIds = new AtomicInteger();
+            final AtomicInteger versionIds = new AtomicInteger();
+            final List<String> packageRanges = new ArrayList<>();
+            final List<String> packageVersions = new ArrayList<>();
+            List<PackageVersions> chunk = new ArrayList<>();
+            int chunk_size = 0;
 
-            while (rs.next()) {
-                row_count++;
-                if (row_count % 100000 == 0)
-                    System.out.println(row_count);
+            int package_count = 0;
+            boolean hasRange = ranges.next();
+            boolean hasVersion = versions.next();
 
-                final String reqVersionS = rs.getString(1);
-                final String versionS = rs.getString(2);
-                final Version version;
-                final VersionRange reqVersion;
-                try {
-                    version = Version.parseVersion(versionS);
-                    reqVersion = VersionRange.parseVersionRange(reqVersionS);
-                } catch (Exception e) {
+            while (hasRange && hasVersion) {
+                final int rangePackageId = ranges.getInt(1);
+                final int versionPackageId = versions.getInt(1);
+                if (rangePackageId < versionPackageId) {
+                    hasRange = ranges.next();
                     continue;
                 }
-                if (!reqVersion.contains(version))
+                if (versionPackageId < rangePackageId) {
+                    hasVersion = versions.next();
                     continue;
+                }
+
+                packageRanges.clear();
+                while (hasRange && ranges.getInt(1) == rangePackageId) {
+                    packageRanges.add(ranges.getString(2));
+                    hasRange = ranges.next();
+                }
+
+                packageVersions.clear();
+                while (hasVersion && versions.getInt(1) == versionPackageId) {
+                    packageVersions.add(versions.getString(2));
+                    hasVersion = versions.next();
+                }
 
-                insert.setString(1, reqVersionS);
-                insert.setString(2, versionS);
-                insert.addBatch();
-                batch_count++;
+                final ParsedRange[] parsedPackageRanges = new ParsedRange[packageRanges.size()];
+                for (int i = 0; i < parsedPackageRanges.length; i++)
+                    parsedPackageRanges[i] = parsedRanges.computeIfAbsent(packageRanges.get(i),
+                            s -> new ParsedRange(rangeIds.incrementAndGet(), s));
+                final ParsedVersion[] parsedPackageVersions = new ParsedVersion[packageVersions.size()];
+                for (int i = 0; i < parsedPackageVersions.length; i++)
+                    parsedPackageVersions[i] = parsedVersions.computeIfAbsent(packageVersions.get(i),
+                            s -> new ParsedVersion(versionIds.incrementAndGet(), s));
+
+                chunk.add(new PackageVersions(parsedPackageRanges, parsedPackageVersions));
+                chunk_size += parsedPackageRanges.length + parsedPackageVersions.length;
+                if (chunk_size >= CHUNK_SIZE) {
+                    tasks.put(pool.submit(new MatchTask(chunk, 0, chunk.size())));
+                    chunk = new ArrayList<>();
+                    chunk_size = 0;
+                }
 
-                if (batch_count % BATCH_SIZE == 0)
-                    flushBatch(insert);
+                package_count++;
+                if (package_count % 10000 == 0)
+                    System.out.printf("%d packages\n", package_count);
             }
 
-            flushBatch(insert);
+            if (!chunk.isEmpty())
+                tasks.put(pool.submit(new MatchTask(chunk, 0, chunk.size())));
+
+            conn.commit();
+        }
+    }
+
+    private static void write(final BlockingQueue<ForkJoinTask<Matches>> tasks)
+            throws SQLException, InterruptedException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                final LongSet emitted = new LongSet();
+                final StringBuilder sb = new StringBuilder();
+                int row_count = 0;
+
+                while (true) {
+                    final ForkJoinTask<Matches> task = tasks.take();
+                    if (task == END)
+                        break;
+
+                    final Matches matches = task.join();
+                    for (int i = 0; i < matches.ranges.size(); i++) {
+                        final ParsedRange range = matches.ranges.get(i);
+                        final ParsedVersion version = matches.versions.get(i);
+                        if (!emitted.add(((long) range.id << 32) | version.id))
+                            continue;
+
+                        copyField(sb, range.string);
+                        sb.append('\t');
+                        copyField(sb, version.string);
+                        sb.append('\n');
+                        row_count++;
+
+                        if (row_count % 100000 == 0)
+                            System.out.printf("%d matches\n", row_count);
+                    }
+
+                    if (sb.length() >= COPY_BUFFER_SIZE) {
+                        final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        sb.setLength(0);
+                    }
+                }
+
+                final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive())
+                    copyIn.cancelCopy();
+            }
 
             conn.commit();
         }
     }
 
-    private static void flushBatch(final PreparedStatement statement)
-            throws SQLException {
-        statement.executeBatch();
-        statement.clearBatch();
+    private static Matches match(final PackageVersions packageVersions) {
+        final Matches matches = new Matches();
+        final ParsedVersion[] sorted = sortVersions(packageVersions.versions);
+        for (final ParsedRange range : packageVersions.ranges) {
+            if (range.range == null)
+                continue;
+
+            final int end = firstAbove(sorted, range.range.getCeiling(), !range.range.isOpenCeiling());
+            for (int i = firstAbove(sorted, range.range.getFloor(), range.range.isOpenFloor()); i < end; i++)
+                if (range.range.contains(sorted[i].version))
+                    matches.add(range, sorted[i]);
+        }
+        return matches;
+    }
+
+    private static void copyField(final StringBuilder sb, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            switch (ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+    }
+
+    private static ParsedVersion[] sortVersions(final ParsedVersion[] versions) {
+        final List<ParsedVersion> valid = new ArrayList<>(versions.length);
+        for (final ParsedVersion version : versions)
+            if (version.version != null)
+                valid.add(version);
+        final ParsedVersion[] sorted = valid.toArray(new ParsedVersion[0]);
+        Arrays.sort(sorted, (a, b) -> a.version.compareTo(b.version));
+        return sorted;
+    }
+
+    private static int firstAbove(final ParsedVersion[] sorted, final Version bound, final boolean strict) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int cmp = sorted[mid].version.compareTo(bound);
+            if (cmp < 0 || (strict && cmp == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
     }
 }
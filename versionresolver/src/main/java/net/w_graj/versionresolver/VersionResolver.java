@@ -0,0 +1,395 @@
+package net.w_graj.versionresolver;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.apache.maven.artifact.versioning.Restriction;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+public class VersionResolver {
+    private static final String DB_URL = "jdbc:postgresql:cse3000";
+    private static final String DB_USER = "wojtek";
+    private static final String DB_PASS = "";
+
+    private static final int FETCH_SIZE = 4096;
+    private static final int CHUNK_SIZE = 65536;
+    private static final int QUEUE_SIZE = 64;
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+    private static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ForkJoinTask<Resolutions> END = ForkJoinTask.adapt(() -> new Resolutions());
+
+    private static final String SELECT_SPECS_SQL = "SELECT DISTINCT"
+            + "\n    to_artifact_id,"
+            + "\n    resolved_version"
+            + "\nFROM"
+            + "\n    dependencies"
+            + "\nWHERE"
+            + "\n    resolved_version IS NOT NULL"
+            + "\nORDER BY"
+            + "\n    to_artifact_id";
+
+    private static final String SELECT_VERSIONS_SQL = "SELECT"
+            + "\n    artifact_id,"
+            + "\n    id,"
+            + "\n    version"
+            + "\nFROM"
+            + "\n    versions"
+            + "\nORDER BY"
+            + "\n    artifact_id";
+
+    private static final String COPY_SQL = "COPY resolved_versions(to_artifact_id, version_spec, version_id) FROM STDIN";
+
+    private static class ArtifactVersions {
+        public final int artifactId;
+        public final String[] specs;
+        public final int[] versionIds;
+        public final String[] versionStrings;
+
+        public ArtifactVersions(final int artifactId, final String[] specs, final int[] versionIds,
+                final String[] versionStrings) {
+            this.artifactId = artifactId;
+            this.specs = specs;
+            this.versionIds = versionIds;
+            this.versionStrings = versionStrings;
+        }
+    }
+
+    private static class SortedVersions {
+        public final int[] ids;
+        public final String[] strings;
+        public final ComparableVersion[] versions;
+
+        public SortedVersions(final ArtifactVersions artifact) {
+            final int n = artifact.versionIds.length;
+            final ComparableVersion[] parsed = new ComparableVersion[n];
+            final Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                parsed[i] = new ComparableVersion(artifact.versionStrings[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> parsed[a].compareTo(parsed[b]));
+
+            this.ids = new int[n];
+            this.strings = new String[n];
+            this.versions = new ComparableVersion[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = artifact.versionIds[order[i]];
+                strings[i] = artifact.versionStrings[order[i]];
+                versions[i] = parsed[order[i]];
+            }
+        }
+
+        public int lastBelow(final ComparableVersion bound, final boolean inclusive) {
+            int lo = 0;
+            int hi = versions.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int cmp = versions[mid].compareTo(bound);
+                if (cmp < 0 || (inclusive && cmp == 0))
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo - 1;
+        }
+    }
+
+    private static class Resolutions {
+        public final List<String> specs = new ArrayList<>();
+        private int[] artifactIds = new int[16];
+        private int[] versionIds = new int[16];
+
+        public void add(final int artifactId, final String spec, final int versionId) {
+            if (specs.size() == artifactIds.length) {
+                artifactIds = Arrays.copyOf(artifactIds, artifactIds.length * 2);
+                versionIds = Arrays.copyOf(versionIds, versionIds.length * 2);
+            }
+            artifactIds[specs.size()] = artifactId;
+            versionIds[specs.size()] = versionId;
+            specs.add(spec);
+        }
+
+        public int artifactId(final int i) {
+            return artifactIds[i];
+        }
+
+        public int versionId(final int i) {
+            return versionIds[i];
+        }
+
+        public Resolutions addAll(final Resolutions other) {
+            for (int i = 0; i < other.specs.size(); i++)
+                add(other.artifactIds[i], other.specs.get(i), other.versionIds[i]);
+            return this;
+        }
+    }
+
+    private static class ResolveTask extends RecursiveTask<Resolutions> {
+        private final List<ArtifactVersions> artifacts;
+        private final int lo;
+        private final int hi;
+
+        public ResolveTask(final List<ArtifactVersions> artifacts, final int lo, final int hi) {
+            this.artifacts = artifacts;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Resolutions compute() {
+            if (hi - lo == 1)
+                return resolve(artifacts.get(lo));
+
+            final int mid = (lo + hi) >>> 1;
+            final ResolveTask left = new ResolveTask(artifacts, lo, mid);
+            left.fork();
+            final Resolutions right = new ResolveTask(artifacts, mid, hi).compute();
+            return left.join().addAll(right);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final BlockingQueue<ForkJoinTask<Resolutions>> tasks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final Thread writer = Thread.currentThread();
+        try {
+            final Future<?> readerFuture = reader.submit(() -> {
+                try {
+                    read(pool, tasks);
+                    tasks.put(END);
+                    return null;
+                } catch (Exception e) {
+                    System.err.println(e);
+                    writer.interrupt();
+                    throw e;
+                }
+            });
+
+            write(tasks);
+            readerFuture.get();
+        } finally {
+            reader.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    private static void read(final ForkJoinPool pool, final BlockingQueue<ForkJoinTask<Resolutions>> tasks)
+            throws SQLException, InterruptedException {
+        try (
+                final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+                final PreparedStatement selectSpecs = conn.prepareStatement(
+                        SELECT_SPECS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                final PreparedStatement selectVersions = conn.prepareStatement(
+                        SELECT_VERSIONS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);) {
+            conn.setAutoCommit(false);
+            selectSpecs.setFetchSize(FETCH_SIZE);
+            selectVersions.setFetchSize(FETCH_SIZE);
+            final ResultSet specs = selectSpecs.executeQuery();
+            final ResultSet versions = selectVersions.executeQuery();
+
+            final List<String> artifactSpecs = new ArrayList<>();
+            final List<String> artifactVersions = new ArrayList<>();
+            int[] artifactVersionIds = new int[16];
+            List<ArtifactVersions> chunk = new ArrayList<>();
+            int chunk_size = 0;
+
+            int artifact_count = 0;
+            boolean hasSpec = specs.next();
+            boolean hasVersion = versions.next();
+
+            while (hasSpec && hasVersion) {
+                final int specArtifactId = specs.getInt(1);
+                final int versionArtifactId = versions.getInt(1);
+                if (specArtifactId < versionArtifactId) {
+                    hasSpec = specs.next();
+                    continue;
+                }
+                if (versionArtifactId < specArtifactId) {
+                    hasVersion = versions.next();
+                    continue;
+                }
+
+                artifactSpecs.clear();
+                while (hasSpec && specs.getInt(1) == specArtifactId) {
+                    artifactSpecs.add(specs.getString(2));
+                    hasSpec = specs.next();
+                }
+
+                artifactVersions.clear();
+                while (hasVersion && versions.getInt(1) == versionArtifactId) {
+                    if (artifactVersions.size() == artifactVersionIds.length)
+                        artifactVersionIds = Arrays.copyOf(artifactVersionIds, artifactVersionIds.length * 2);
+                    artifactVersionIds[artifactVersions.size()] = versions.getInt(2);
+                    artifactVersions.add(versions.getString(3));
+                    hasVersion = versions.next();
+                }
+
+                chunk.add(new ArtifactVersions(specArtifactId, artifactSpecs.toArray(new String[0]),
+                        Arrays.copyOf(artifactVersionIds, artifactVersions.size()),
+                        artifactVersions.toArray(new String[0])));
+                chunk_size += artifactSpecs.size() + artifactVersions.size();
+                if (chunk_size >= CHUNK_SIZE) {
+                    tasks.put(pool.submit(new ResolveTask(chunk, 0, chunk.size())));
+                    chunk = new ArrayList<>();
+                    chunk_size = 0;
+                }
+
+                artifact_count++;
+                if (artifact_count % 10000 == 0)
+                    System.out.printf("%d artifacts\n", artifact_count);
+            }
+
+            if (!chunk.isEmpty())
+                tasks.put(pool.submit(new ResolveTask(chunk, 0, chunk.size())));
+
+            conn.commit();
+        }
+    }
+
+    private static void write(final BlockingQueue<ForkJoinTask<Resolutions>> tasks)
+            throws SQLException, InterruptedException {
+        try (final Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);) {
+            conn.setAutoCommit(false);
+            final CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                final StringBuilder sb = new StringBuilder();
+                int row_count = 0;
+
+                while (true) {
+                    final ForkJoinTask<Resolutions> task = tasks.take();
+                    if (task == END)
+                        break;
+
+                    final Resolutions resolutions = task.join();
+                    for (int i = 0; i < resolutions.specs.size(); i++) {
+                        sb.append(resolutions.artifactId(i));
+                        sb.append('\t');
+                        copyField(sb, resolutions.specs.get(i));
+                        sb.append('\t');
+                        sb.append(resolutions.versionId(i));
+                        sb.append('\n');
+                        row_count++;
+
+                        if (row_count % 100000 == 0)
+                            System.out.printf("%d resolved\n", row_count);
+                    }
+
+                    if (sb.length() >= COPY_BUFFER_SIZE) {
+                        final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        sb.setLength(0);
+                    }
+                }
+
+                final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive())
+                    copyIn.cancelCopy();
+            }
+
+            conn.commit();
+        }
+    }
+
+    private static Resolutions resolve(final ArtifactVersions artifact) {
+        final Resolutions resolutions = new Resolutions();
+        final SortedVersions versions = new SortedVersions(artifact);
+
+        for (final String spec : artifact.specs) {
+            final int i = resolve(versions, spec);
+            if (i >= 0)
+                resolutions.add(artifact.artifactId, spec, versions.ids[i]);
+        }
+
+        return resolutions;
+    }
+
+    private static int resolve(final SortedVersions versions, final String spec) {
+        final String trimmed = spec.trim();
+        if (trimmed.isEmpty())
+            return -1;
+
+        if (trimmed.charAt(0) != '[' && trimmed.charAt(0) != '(') {
+            final ComparableVersion version = new ComparableVersion(trimmed);
+            int i = versions.lastBelow(version, true);
+            int equal = -1;
+            for (; i >= 0 && versions.versions[i].compareTo(version) == 0; i--) {
+                if (versions.strings[i].equals(trimmed))
+                    return i;
+                equal = i;
+            }
+            return equal;
+        }
+
+        final VersionRange range;
+        try {
+            range = VersionRange.createFromVersionSpec(trimmed);
+        } catch (Exception e) {
+            return -1;
+        }
+
+        int best = -1;
+        for (final Restriction restriction : range.getRestrictions()) {
+            final ArtifactVersion upper = restriction.getUpperBound();
+            final int i = (upper != null)
+                    ? versions.lastBelow(new ComparableVersion(upper.toString()), restriction.isUpperBoundInclusive())
+                    : versions.versions.length - 1;
+            if (i <= best)
+                continue;
+
+            final ArtifactVersion lower = restriction.getLowerBound();
+            if (lower != null) {
+                final int cmp = versions.versions[i].compareTo(new ComparableVersion(lower.toString()));
+                if (cmp < 0 || (cmp == 0 && !restriction.isLowerBoundInclusive()))
+                    continue;
+            }
+            best = i;
+        }
+        return best;
+    }
+
+    private static void copyField(final StringBuilder sb, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            switch (ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+    }
+}